@@ -64,7 +64,7 @@ import de.bastisoft.ogre.LineMatch;
 import de.bastisoft.ogre.Scraper;
 import de.bastisoft.ogre.SearchResult;
 import de.bastisoft.ogre.WebLink;
-import de.bastisoft.ogre.event.ResultReceiver;
+import de.bastisoft.ogre.event.BatchReceiver;
 import de.bastisoft.ogre.gui.Config.LookAndFeelSetting;
 import de.bastisoft.ogre.gui.QueryInputs.Input;
 import de.bastisoft.ogre.gui.tree.LinkHandler;
@@ -91,6 +91,10 @@ public class SearchFrame extends JFrame {
     private static final String RES_BROWSE_ERROR_LINK    = RES_PREFIX + "browse.error.link.message";
     private static final String RES_BROWSE_ERROR_LAUNCH  = RES_PREFIX + "browse.error.launch.message";
     
+    // Results are handed to the event dispatch thread in batches of this many files or milliseconds
+    private static final int RESULT_BATCH_SIZE = 200;
+    private static final long RESULT_BATCH_WINDOW = 100;
+    
     private JSplitPane splitPane;
     private ServerChoicePanel serverChoicePanel;
     private QueryPanel queryPanel;
@@ -329,30 +333,24 @@ public class SearchFrame extends JFrame {
             scraper.setFetchLinesLast(server.serverSettings.fetchLinesLast);
             
             scraper.addProgressListener(statusBar);
+            scraper.addTelemetryListener(statusBar);
             
-            scraper.addResultReceiver(new ResultReceiver() {
-                
-                @Override
-                public void newFileMatches(final Collection<FileMatch> newMatches) {
-                    SwingUtilities.invokeLater(new Runnable() {
-                        @Override
-                        public void run() {
-                            tree.addFileMatches(newMatches);
-                        }
-                    });
-                }
+            scraper.addBatchReceiver(new BatchReceiver() {
                 
                 @Override
-                public void newLineMatches(final FileMatch amendedMatch) {
+                public void newResults(final Collection<FileMatch> newMatches, final Collection<FileMatch> amendedMatches) {
                     SwingUtilities.invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            tree.updateFileMatch(amendedMatch);
+                            if (!newMatches.isEmpty())
+                                tree.addFileMatches(newMatches);
+                            for (FileMatch match : amendedMatches)
+                                tree.updateFileMatch(match);
                         }
                     });
                 }
                 
-            });
+            }, RESULT_BATCH_WINDOW, RESULT_BATCH_SIZE);
             
             statusBar.queryStarted();
             
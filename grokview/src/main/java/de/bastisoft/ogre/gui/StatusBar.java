@@ -31,9 +31,11 @@ import javax.swing.JPanel;
 
 import de.bastisoft.ogre.FileMatch;
 import de.bastisoft.ogre.SearchResult;
+import de.bastisoft.ogre.SearchTelemetry;
 import de.bastisoft.ogre.event.ProgressListener;
+import de.bastisoft.ogre.event.TelemetryListener;
 
-class StatusBar extends JPanel implements ProgressListener {
+class StatusBar extends JPanel implements ProgressListener, TelemetryListener {
     
     private static final String RES_PREFIX      = "status.";
     private static final String RES_DIRECTORIES = RES_PREFIX + "directories";
@@ -82,6 +84,7 @@ class StatusBar extends JPanel implements ProgressListener {
     private Icon noticeIcon;
     private JLabel statusLabel;
     private CountPanel countPanel;
+    private volatile String rate;
     
     StatusBar() {
         setLayout(new BoxLayout(this, BoxLayout.LINE_AXIS));
@@ -93,6 +96,7 @@ class StatusBar extends JPanel implements ProgressListener {
     }
     
     void queryStarted() {
+        rate = null;
         statusLabel.setText(null);
         statusLabel.setIcon(null);
         countPanel.setCounts(0, 0, 0);
@@ -104,7 +108,7 @@ class StatusBar extends JPanel implements ProgressListener {
         Collection<FileMatch> files = result.files();
         for (FileMatch m : files) {
             dirset.add(m.getDirectory());
-            linecount += m.getLines().size();
+            linecount += m.lineCount();
         }
         countPanel.setCounts(dirset.size(), files.size(), linecount);
         
@@ -135,7 +139,15 @@ class StatusBar extends JPanel implements ProgressListener {
         current++;
         int overall = current + pending;
         int percent = current * 100 / overall;
-        statusLabel.setText(String.format("%s - %d/%d (%d%%)", phase, current, overall, percent));
+        String text = String.format("%s - %d/%d (%d%%)", phase, current, overall, percent);
+        statusLabel.setText(rate != null ? text + " - " + rate : text);
+    }
+    
+    @Override
+    public void requestCompleted(SearchTelemetry telemetry) {
+        long remaining = telemetry.getEstimatedMillisRemaining() / 1000;
+        rate = String.format("%.1f pages/s, %.0f lines/s, %d:%02d left",
+                telemetry.getPagesPerSecond(), telemetry.getLinesPerSecond(), remaining / 60, remaining % 60);
     }
     
     @Override
@@ -96,7 +96,7 @@ class CellRenderer extends DefaultTreeCellRenderer {
     private void displayFile(FileNode file) {
         FileMatch match = file.fileMatch;
         
-        int lines = match.getLines().size();
+        int lines = match.lineCount();
         
         StringBuilder sb = new StringBuilder();
         sb.append("<html>");
@@ -51,18 +51,18 @@ class FileNode implements ResultTreeNode, Comparable<FileNode> {
 	
 	@Override
 	public int numChildren() {
-		return fileMatch.getLines().size();
+		return fileMatch.lineCount();
 	}
 	
 	@Override
 	public Object childAt(int index) {
-		return fileMatch.getLines().get(index);
+		return fileMatch.lineAt(index);
 	}
 	
 	@Override
 	public int indexOf(Object child) {
 		if (child instanceof LineMatch)
-			return fileMatch.getLines().indexOf(child);
+			return fileMatch.indexOfLine((LineMatch) child);
 		
 		return -1;
 	}
@@ -66,7 +66,7 @@ public class ResultTreeModel implements TreeModel {
     public boolean isLeaf(Object node) {
         return node instanceof LineMatch
                 || node instanceof FileNode
-                    && ((FileNode) node).fileMatch.getLines().size() == 0;
+                    && ((FileNode) node).fileMatch.lineCount() == 0;
     }
 
     @Override
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.bastisoft.ogre.testkit.SyntheticCorpus;
+import de.bastisoft.ogre.testkit.SyntheticOpenGrok;
+import de.bastisoft.ogre.trace.TraceReplay;
+
+/**
+ * The pages that benchmarks work on, given by a corpus specification:
+ * <dl>
+ * <dt><code>synthetic:<i>n</i></code>
+ * <dd>a result page with <i>n</i> files from {@link SyntheticOpenGrok}, and a "more" page
+ *     with <i>n</i> line matches;
+ * <dt><code>har:<i>file</i></code>
+ * <dd>all result and "more" pages in a trace recorded with
+ *     {@link de.bastisoft.ogre.trace.TraceRecorder}, to benchmark with real pages.
+ * </dl>
+ */
+final class BenchmarkPages {
+
+    static class Page {
+        
+        final URL url;
+        final byte[] body;
+        
+        Page(URL url, byte[] body) {
+            this.url = url;
+            this.body = body;
+        }
+        
+        /**
+         * Repairs and parses the page.
+         */
+        FetchResponse parse() throws Exception {
+            return new FetchResponse(new CorrectingReader(new ByteArrayInputStream(body), null).parse(), url);
+        }
+        
+    }
+    
+    /** Line matches per file on synthetic result pages. */
+    static final int LINES_PER_FILE = 4;
+    
+    final List<Page> resultPages;
+    final List<Page> morePages;
+    
+    private BenchmarkPages(List<Page> resultPages, List<Page> morePages) {
+        this.resultPages = resultPages;
+        this.morePages = morePages;
+    }
+    
+    static BenchmarkPages load(String spec) throws IOException {
+        if (spec.startsWith("synthetic:"))
+            return synthetic(Integer.parseInt(spec.substring(10)), 0);
+        if (spec.startsWith("har:"))
+            return trace(new File(spec.substring(4)));
+        throw new IllegalArgumentException("Unknown corpus: " + spec);
+    }
+    
+    /**
+     * Fetches synthetic pages from a server started for the purpose.
+     * 
+     * @param size files on the result page and line matches on the "more" page
+     * @param seed seed for the corpus; different seeds give different line matches for
+     *          the same files
+     */
+    static BenchmarkPages synthetic(int size, long seed) throws IOException {
+        SyntheticCorpus files = new SyntheticCorpus(size, LINES_PER_FILE, 0);
+        files.setSeed(seed);
+        SyntheticCorpus lines = new SyntheticCorpus(1, size, 1);
+        lines.setSeed(seed);
+        lines.setShownLines(1);
+        
+        Page resultPage;
+        try (SyntheticOpenGrok server = new SyntheticOpenGrok(files)) {
+            server.setPageSize(size);
+            server.start();
+            resultPage = fetch(new URL(server.getURL(), "search?q=benchmark"));
+        }
+        
+        Page morePage;
+        try (SyntheticOpenGrok server = new SyntheticOpenGrok(lines)) {
+            server.start();
+            morePage = fetch(new URL(server.getURL(), "more" + lines.directory(0) + lines.filename(0) + "?full=benchmark"));
+        }
+        
+        return new BenchmarkPages(Collections.singletonList(resultPage), Collections.singletonList(morePage));
+    }
+    
+    private static Page fetch(URL url) throws IOException {
+        try (InputStream in = url.openStream()) {
+            return new Page(url, readFully(in));
+        }
+    }
+    
+    private static BenchmarkPages trace(File file) throws IOException {
+        TraceReplay replay = new TraceReplay(file);
+        replay.setTimeScale(0);
+        
+        List<Page> resultPages = new ArrayList<>();
+        List<Page> morePages = new ArrayList<>();
+        for (String u : replay.urls()) {
+            URL url = new URL(u);
+            boolean more = url.getPath().contains("/more/");
+            if (!more && !url.getPath().endsWith("/search"))
+                continue;
+            
+            try (Transport.Response response = replay.get(url, Collections.<String, String>emptyMap(), null)) {
+                Page page = new Page(response.getURL(), readFully(response.getBody()));
+                (more ? morePages : resultPages).add(page);
+            }
+        }
+        
+        if (resultPages.isEmpty() || morePages.isEmpty())
+            throw new IOException("Trace must contain result pages and \"more\" pages: " + file);
+        return new BenchmarkPages(resultPages, morePages);
+    }
+    
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > -1)
+            out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+    
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Repairing the XHTML of a response and building its DOM tree, which is
+ * {@link CorrectingReader#parse}. One operation covers all pages of the corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CorrectingReaderBenchmark {
+
+    @Param({"synthetic:25", "synthetic:100", "synthetic:500"})
+    public String corpus;
+    
+    private BenchmarkPages pages;
+    
+    @Setup
+    public void load() throws Exception {
+        pages = BenchmarkPages.load(corpus);
+    }
+    
+    @Benchmark
+    public void resultPages(Blackhole bh) throws Exception {
+        for (BenchmarkPages.Page page : pages.resultPages)
+            bh.consume(new CorrectingReader(new ByteArrayInputStream(page.body), null).parse());
+    }
+    
+    @Benchmark
+    public void morePages(Blackhole bh) throws Exception {
+        for (BenchmarkPages.Page page : pages.morePages)
+            bh.consume(new CorrectingReader(new ByteArrayInputStream(page.body), null).parse());
+    }
+    
+}
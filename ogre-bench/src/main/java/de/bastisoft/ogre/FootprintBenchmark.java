@@ -0,0 +1,269 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures how much heap a {@link SearchResult} retains, per file match and per line match,
+ * and fails if a line match costs more than a budget. It is meant to run as part of a build,
+ * as a guard against memory regressions, and to help size the heap of applications.
+ * 
+ * <p>Results are built the way the scraper builds them, from made-up file and line matches
+ * that resemble real ones: directories of varying depth with a varying number of files,
+ * file names of varying length, lines of varying length with mostly one highlight, links
+ * for every line, and some abridged files. The retained size is the difference in used heap
+ * after garbage collection, with and without the result. The cost of a file match is taken
+ * from results without line matches, the cost of a line match from the difference to results
+ * with line matches.
+ * 
+ * <p>Options:
+ * <pre>
+ * -files 1000,10000,50000      files per result
+ * -lines 1,8,32                line matches per file
+ * -budget 450                  maximum bytes per line match, 0 for no limit</pre>
+ * 
+ * <p>The exit status is 1 if the budget is exceeded for any result.
+ */
+public class FootprintBenchmark {
+
+    private static final String[] SEGMENTS = {
+        "src", "main", "java", "test", "lib", "include", "util", "core", "net", "io", "impl",
+        "common", "server", "client", "internal", "api", "model", "drivers", "fs", "kernel"
+    };
+    
+    private static final String[] WORDS = {
+        "Abstract", "Buffer", "Cache", "Channel", "Config", "Default", "Event", "File", "Handler",
+        "Index", "Line", "Manager", "Node", "Parser", "Reader", "Request", "Session", "Stream",
+        "Table", "Util", "Writer"
+    };
+    
+    private static final String[] EXTENSIONS = {".java", ".java", ".java", ".c", ".h", ".py", ".xml"};
+    
+    private static final String CODE = "if (buffer.length > index) return result.get(count + 1); ";
+    
+    /** Files on a result page, which share the page URL as the referrer of their links. */
+    private static final int PAGE_SIZE = 25;
+    
+    // Separate sequences, so that results with and without line matches have the same files
+    private final Random names = new Random();
+    private final Random random = new Random();
+    
+    private int[] fileCounts = {1000, 10000, 50000};
+    private int[] lineCounts = {1, 8, 32};
+    private long budget = 450;
+    
+    public static void main(String[] args) throws Exception {
+        FootprintBenchmark benchmark = new FootprintBenchmark();
+        try {
+            benchmark.parseArguments(args);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: FootprintBenchmark [-files n,...] [-lines n,...] [-budget bytes]");
+            System.exit(1);
+        }
+        
+        if (!benchmark.run()) {
+            System.err.println("Line matches exceed the budget of " + benchmark.budget + " bytes");
+            System.exit(1);
+        }
+    }
+    
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length)
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            
+            String value = args[i + 1];
+            try {
+                switch (args[i]) {
+                    case "-files":  fileCounts = ints(value); break;
+                    case "-lines":  lineCounts = ints(value); break;
+                    case "-budget": budget = Long.parseLong(value); break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + args[i] + ": " + value);
+            }
+        }
+    }
+    
+    private static int[] ints(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+            if (values[i] < 1)
+                throw new NumberFormatException();
+        }
+        return values;
+    }
+    
+    /**
+     * Measures all results and prints a table.
+     * 
+     * @return <code>false</code> if the budget was exceeded
+     */
+    private boolean run() throws MalformedURLException, InterruptedException {
+        // Whatever is initialized on first use should not count towards the first result
+        build(1000, 8);
+        
+        boolean withinBudget = true;
+        System.out.printf("%8s %6s %12s %10s %10s%n", "files", "lines", "total (MB)", "per file", "per line");
+        
+        for (int files : fileCounts) {
+            long perFile = retained(files, 0) / files;
+            for (int lines : lineCounts) {
+                long total = retained(files, lines);
+                long perLine = (total - perFile * files) / ((long) files * lines);
+                boolean exceeded = budget > 0 && perLine > budget;
+                withinBudget &= !exceeded;
+                
+                System.out.printf(Locale.ROOT, "%8d %6d %12.1f %10d %10d%s%n",
+                        files, lines, total / (1024.0 * 1024), perFile, perLine, exceeded ? "  over budget" : "");
+            }
+        }
+        
+        return withinBudget;
+    }
+    
+    /**
+     * Builds a result and returns the number of bytes it retains.
+     */
+    private long retained(int files, int linesPerFile) throws MalformedURLException, InterruptedException {
+        // Start from the same sequences every time, so that results differ only in size
+        names.setSeed(0);
+        random.setSeed(1);
+        
+        long before = usedHeap();
+        SearchResult result = build(files, linesPerFile);
+        long after = usedHeap();
+        
+        if (result.files().size() != files)
+            throw new IllegalStateException("Result has " + result.files().size() + " files instead of " + files);
+        return after - before;
+    }
+    
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        
+        /* Collect until nothing more is freed twice in a row. Some objects only become
+         * unreachable once references have been processed in the background after a
+         * collection, so give that a moment. */
+        int unchanged = 0;
+        for (int i = 0; i < 20 && unchanged < 2; i++) {
+            System.gc();
+            Thread.sleep(50);
+            long current = memory.getHeapMemoryUsage().getUsed();
+            if (current < used) {
+                used = current;
+                unchanged = 0;
+            }
+            else
+                unchanged++;
+        }
+        return used;
+    }
+    
+    private SearchResult build(int files, int linesPerFile) throws MalformedURLException {
+        URL base = new URL("http://opengrok.example.com/source/");
+        SearchResult result = new SearchResult(new WebLink(new URL(base, "search?q=footprint"), null));
+        
+        URL page = null;
+        String dir = null;
+        int dirFiles = 0;
+        
+        for (int i = 0; i < files; i++) {
+            if (i % PAGE_SIZE == 0)
+                page = new URL(base, "search?q=footprint&start=" + i);
+            
+            // Between one and about twenty files per directory
+            if (dirFiles == 0) {
+                dir = directory();
+                dirFiles = 1 + (int) Math.min(30, -Math.log(1 - names.nextDouble()) * 8);
+            }
+            dirFiles--;
+            
+            String name = filename(i);
+            URL xref = new URL(base, "xref" + dir + name);
+            FileMatch match = new FileMatch(dir, name, new WebLink(xref, page));
+            
+            int lineNumber = 0;
+            for (int j = 0; j < linesPerFile; j++) {
+                lineNumber += 1 + random.nextInt(50);
+                match.addLine(line(lineNumber, xref, page));
+            }
+            
+            if (names.nextInt(4) == 0)
+                match.setAbridged(new WebLink(new URL(base, "more" + dir + name + "?full=footprint"), page));
+            
+            result.mergeFileMatch(match);
+        }
+        
+        return result;
+    }
+    
+    private String directory() {
+        StringBuilder sb = new StringBuilder("/");
+        int depth = 2 + names.nextInt(5);
+        for (int i = 0; i < depth; i++)
+            sb.append(SEGMENTS[names.nextInt(SEGMENTS.length)]).append('/');
+        return sb.toString();
+    }
+    
+    private String filename(int i) {
+        StringBuilder sb = new StringBuilder();
+        int words = 1 + names.nextInt(3);
+        for (int j = 0; j < words; j++)
+            sb.append(WORDS[names.nextInt(WORDS.length)]);
+        
+        // Numbered, so that names are unique
+        return sb.append(i).append(EXTENSIONS[names.nextInt(EXTENSIONS.length)]).toString();
+    }
+    
+    private LineMatch line(int lineNumber, URL xref, URL page) throws MalformedURLException {
+        // Mostly around 60 characters, rarely more than 150
+        int length = (int) Math.max(10, Math.min(200, 60 * Math.exp(0.5 * random.nextGaussian())));
+        
+        StringBuilder text = new StringBuilder(length);
+        int offset = random.nextInt(CODE.length());
+        while (text.length() < length)
+            text.append(CODE.charAt(offset++ % CODE.length()));
+        
+        // One highlight in most lines, two or three in some
+        int highlights = random.nextInt(10) < 8 ? 1 : 2 + random.nextInt(2);
+        List<Integer> positions = new ArrayList<>(2 * highlights);
+        for (int i = 0; i < highlights; i++) {
+            int start = i * length / highlights + random.nextInt(length / highlights / 2 + 1);
+            positions.add(start);
+            positions.add(Math.min(length, start + 3 + random.nextInt(8)));
+        }
+        
+        return new LineMatch(lineNumber, text.toString(), new WebLink(new URL(xref, "#" + lineNumber), page), positions);
+    }
+    
+}
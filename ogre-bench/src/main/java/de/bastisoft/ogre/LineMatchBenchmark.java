@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Constructing a line match from the highlight positions collected by the parser.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LineMatchBenchmark {
+
+    @Param({"0", "1", "4"})
+    public int highlights;
+    
+    @Param({"80"})
+    public int length;
+    
+    private String text;
+    private List<Integer> positions;
+    private WebLink link;
+    private int lineNumber;
+    
+    @Setup
+    public void prepare() throws Exception {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length)
+            sb.append("result = buffer.get(index); ");
+        text = sb.substring(0, length);
+        
+        // Highlights of five characters, spread over the line
+        positions = new ArrayList<>();
+        for (int i = 0; i < highlights; i++) {
+            int start = i * length / highlights;
+            positions.add(start);
+            positions.add(Math.min(length, start + 5));
+        }
+        
+        URL url = new URL("http://opengrok.example.com/source/xref/project/src/Main.java");
+        link = new WebLink(url, null);
+    }
+    
+    @Benchmark
+    public LineMatch construct() {
+        return new LineMatch(++lineNumber, text, link, positions);
+    }
+    
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Merging parsed pages into a search result, with {@link SearchResult#mergeFileMatch}
+ * and {@link SearchResult#mergeLines}. Every operation starts with an empty result.
+ * 
+ * <p>For synthetic corpora, the overlapping page has the same files as the first one,
+ * with different line matches. Traces have no such page, so the first result page of the
+ * trace is merged twice, which exercises the path for line matches that are already known.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MergeBenchmark {
+
+    @Param({"synthetic:25", "synthetic:100", "synthetic:500"})
+    public String corpus;
+    
+    private WebLink start;
+    private ResultPage page;
+    private ResultPage overlapping;
+    private List<LineMatch> moreLines;
+    
+    @Setup
+    public void load() throws Exception {
+        BenchmarkPages pages = BenchmarkPages.load(corpus);
+        BenchmarkPages other = corpus.startsWith("synthetic:")
+                ? BenchmarkPages.synthetic(Integer.parseInt(corpus.substring(10)), 1)
+                : pages;
+        
+        page = new ResultParser(pages.resultPages.get(0).parse()).parsePage(Projection.FULL);
+        overlapping = new ResultParser(other.resultPages.get(0).parse()).parsePage(Projection.FULL);
+        moreLines = new ResultParser(pages.morePages.get(0).parse()).parseMore();
+        start = new WebLink(new URL("http://opengrok.example.com/source/search?q=benchmark"), null);
+    }
+    
+    /**
+     * Merges a page of files that are all new to the result.
+     */
+    @Benchmark
+    public SearchResult newFiles() {
+        SearchResult result = new SearchResult(start);
+        for (FileMatch match : page.fileMatches)
+            result.mergeFileMatch(match);
+        return result;
+    }
+    
+    /**
+     * Merges a page of new files, then a page with more line matches for the same files.
+     * The files of the first page are copied, because they are amended by the merge; the
+     * copies share their line matches, so this costs little.
+     */
+    @Benchmark
+    public SearchResult overlappingFiles() {
+        SearchResult result = new SearchResult(start);
+        for (FileMatch match : page.fileMatches)
+            result.mergeFileMatch(match.copy());
+        for (FileMatch match : overlapping.fileMatches)
+            result.mergeFileMatch(match);
+        return result;
+    }
+    
+    /**
+     * Merges the line matches of a "more" page into a file.
+     */
+    @Benchmark
+    public SearchResult moreLines() {
+        SearchResult result = new SearchResult(start);
+        FileMatch match = new FileMatch("/project/src/", "Main.java", null);
+        result.mergeFileMatch(match);
+        result.mergeLines(match, moreLines);
+        return result;
+    }
+    
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Extracting file and line matches from DOM trees that have been built beforehand, which
+ * is {@link ResultParser#parsePage} and {@link ResultParser#parseMore}. One operation
+ * covers all pages of the corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ResultParserBenchmark {
+
+    @Param({"synthetic:25", "synthetic:100", "synthetic:500"})
+    public String corpus;
+    
+    @Param({"FULL"})
+    public Projection projection;
+    
+    private List<FetchResponse> resultPages;
+    private List<FetchResponse> morePages;
+    
+    @Setup
+    public void load() throws Exception {
+        BenchmarkPages pages = BenchmarkPages.load(corpus);
+        resultPages = new ArrayList<>();
+        for (BenchmarkPages.Page page : pages.resultPages)
+            resultPages.add(page.parse());
+        morePages = new ArrayList<>();
+        for (BenchmarkPages.Page page : pages.morePages)
+            morePages.add(page.parse());
+    }
+    
+    @Benchmark
+    public void parsePage(Blackhole bh) throws Exception {
+        for (FetchResponse response : resultPages)
+            bh.consume(new ResultParser(response).parsePage(projection));
+    }
+    
+    @Benchmark
+    public void parseMore(Blackhole bh) throws Exception {
+        for (FetchResponse response : morePages)
+            bh.consume(new ResultParser(response).parseMore());
+    }
+    
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import de.bastisoft.ogre.FileMatch;
+import de.bastisoft.ogre.Scraper;
+import de.bastisoft.ogre.ScraperException;
+import de.bastisoft.ogre.SearchResult;
+import de.bastisoft.ogre.event.ResultReceiver;
+import de.bastisoft.ogre.testkit.SyntheticCorpus;
+import de.bastisoft.ogre.testkit.SyntheticOpenGrok;
+
+/**
+ * Runs complete searches against a {@link SyntheticOpenGrok} server, for every combination
+ * of result size, page limit, line fetching mode and server latency, and measures the time
+ * until the first file match is reported, the total time, the number of requests and the
+ * peak heap usage. Every measured run is written as a record to a file, as JSON Lines or,
+ * if the file name ends in <code>.csv</code>, as CSV, so that results can be compared over
+ * time.
+ * 
+ * <p>Options, all of which take comma-separated lists where it makes sense:
+ * <pre>
+ * -files 100,1000,10000        files in the corpus
+ * -pages 10,0                  page limits, 0 for unlimited
+ * -lines none,interleaved,last line fetching modes
+ * -latency 0,20                server latencies in milliseconds
+ * -warmup 1                    unmeasured runs per combination
+ * -runs 3                      measured runs per combination
+ * -o search-benchmark.jsonl    result file</pre>
+ * 
+ * <p>Peak heap usage is the sum of the peaks of all heap memory pools since the start of
+ * the run, after a garbage collection. It includes garbage and the server's allocations,
+ * so it is only meaningful in comparison with other runs of the same harness.
+ */
+public class SearchBenchmark {
+
+    /**
+     * How additional line matches are fetched, see {@link Scraper#setFetchLines} and
+     * {@link Scraper#setFetchLinesLast}.
+     */
+    enum LineFetching { NONE, INTERLEAVED, LAST }
+    
+    static class Run {
+        
+        int files;
+        int pageLimit;
+        LineFetching lines;
+        long latency;
+        int run;
+        
+        long firstResultNanos = -1;
+        long totalNanos;
+        int pageRequests;
+        int moreRequests;
+        long peakHeap;
+        int resultFiles;
+        int resultLines;
+        
+    }
+    
+    /** Line matches per file in the corpus. */
+    private static final int LINES_PER_FILE = 8;
+    
+    /** Share of files whose result rows link to a "more" page. */
+    private static final double ABRIDGED_RATIO = 0.25;
+    
+    private int[] files = {100, 1000, 10000};
+    private int[] pageLimits = {10, 0};
+    private LineFetching[] lineModes = LineFetching.values();
+    private long[] latencies = {0, 20};
+    private int warmup = 1;
+    private int runs = 3;
+    private File output = new File("search-benchmark.jsonl");
+    
+    public static void main(String[] args) throws Exception {
+        SearchBenchmark benchmark = new SearchBenchmark();
+        try {
+            benchmark.parseArguments(args);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: SearchBenchmark [-files n,...] [-pages n,...] [-lines none|interleaved|last,...]");
+            System.err.println("           [-latency ms,...] [-warmup n] [-runs n] [-o file]");
+            System.exit(1);
+        }
+        benchmark.run();
+    }
+    
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length)
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            
+            String value = args[i + 1];
+            try {
+                switch (args[i]) {
+                    case "-files":   files = ints(value); break;
+                    case "-pages":   pageLimits = ints(value); break;
+                    case "-latency": latencies = longs(value); break;
+                    case "-warmup":  warmup = Integer.parseInt(value); break;
+                    case "-runs":    runs = Integer.parseInt(value); break;
+                    case "-o":       output = new File(value); break;
+                    
+                    case "-lines": {
+                        String[] names = value.split(",");
+                        lineModes = new LineFetching[names.length];
+                        for (int j = 0; j < names.length; j++)
+                            lineModes[j] = LineFetching.valueOf(names[j].trim().toUpperCase(Locale.ROOT));
+                        break;
+                    }
+                    
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + args[i] + ": " + value);
+            }
+        }
+    }
+    
+    private static int[] ints(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            values[i] = Integer.parseInt(parts[i].trim());
+        return values;
+    }
+    
+    private static long[] longs(String list) {
+        String[] parts = list.split(",");
+        long[] values = new long[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            values[i] = Long.parseLong(parts[i].trim());
+        return values;
+    }
+    
+    private void run() throws IOException, ScraperException {
+        String timestamp = timestamp();
+        boolean csv = output.getName().toLowerCase(Locale.ROOT).endsWith(".csv");
+        
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8))) {
+            if (csv)
+                out.print("timestamp,java,files,pageLimit,lines,latency,run,firstResultMillis,totalMillis,"
+                        + "pageRequests,moreRequests,peakHeap,resultFiles,resultLines\r\n");
+            System.out.printf("%7s %6s %-12s %7s %4s %12s %10s %8s %10s%n",
+                    "files", "pages", "lines", "latency", "run", "first (ms)", "total (ms)", "requests", "heap (MB)");
+            
+            for (int fileCount : files)
+                for (long latency : latencies) {
+                    SyntheticCorpus corpus = new SyntheticCorpus(fileCount, LINES_PER_FILE, ABRIDGED_RATIO);
+                    try (SyntheticOpenGrok server = new SyntheticOpenGrok(corpus)) {
+                        server.setResponseDelay(latency);
+                        server.start();
+                        
+                        for (int pageLimit : pageLimits)
+                            for (LineFetching lines : lineModes)
+                                for (int i = -warmup; i < runs; i++) {
+                                    Run run = search(server, pageLimit, lines);
+                                    if (i < 0)
+                                        continue;
+                                    
+                                    run.files = fileCount;
+                                    run.pageLimit = pageLimit;
+                                    run.lines = lines;
+                                    run.latency = latency;
+                                    run.run = i;
+                                    
+                                    if (csv)
+                                        writeCsv(out, timestamp, run);
+                                    else
+                                        writeJson(out, timestamp, run);
+                                    out.flush();
+                                    print(run);
+                                }
+                    }
+                }
+        }
+    }
+    
+    private static Run search(SyntheticOpenGrok server, int pageLimit, LineFetching lines) throws ScraperException {
+        final Run run = new Run();
+        
+        Scraper scraper = new Scraper(server.getURL());
+        scraper.setPageLimit(pageLimit > 0 ? pageLimit : Integer.MAX_VALUE);
+        scraper.setFetchLines(lines != LineFetching.NONE);
+        scraper.setFetchLinesLast(lines == LineFetching.LAST);
+        
+        final long[] start = new long[1];
+        scraper.addResultReceiver(new ResultReceiver() {
+            @Override
+            public void newFileMatches(Collection<FileMatch> newMatches) {
+                if (run.firstResultNanos < 0 && !newMatches.isEmpty())
+                    run.firstResultNanos = System.nanoTime() - start[0];
+            }
+            
+            @Override
+            public void newLineMatches(FileMatch amendedMatch) {}
+        });
+        
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                heapPools.add(pool);
+        
+        System.gc();
+        for (MemoryPoolMXBean pool : heapPools)
+            pool.resetPeakUsage();
+        server.resetCounts();
+        
+        start[0] = System.nanoTime();
+        SearchResult result = scraper.search("benchmark", null, null, null, null, null);
+        run.totalNanos = System.nanoTime() - start[0];
+        
+        for (MemoryPoolMXBean pool : heapPools)
+            run.peakHeap += pool.getPeakUsage().getUsed();
+        run.pageRequests = server.pageRequestCount();
+        run.moreRequests = server.moreRequestCount();
+        run.resultFiles = result.files().size();
+        for (FileMatch match : result.files())
+            run.resultLines += match.lineCount();
+        
+        return run;
+    }
+    
+    private static void writeJson(PrintWriter out, String timestamp, Run run) {
+        out.print("{\"timestamp\":\"" + timestamp + "\",\"java\":\"" + System.getProperty("java.version") + "\""
+                + ",\"files\":" + run.files
+                + ",\"pageLimit\":" + run.pageLimit
+                + ",\"lines\":\"" + run.lines.name().toLowerCase(Locale.ROOT) + "\""
+                + ",\"latency\":" + run.latency
+                + ",\"run\":" + run.run
+                + ",\"firstResultMillis\":" + millis(run.firstResultNanos)
+                + ",\"totalMillis\":" + millis(run.totalNanos)
+                + ",\"pageRequests\":" + run.pageRequests
+                + ",\"moreRequests\":" + run.moreRequests
+                + ",\"peakHeap\":" + run.peakHeap
+                + ",\"resultFiles\":" + run.resultFiles
+                + ",\"resultLines\":" + run.resultLines
+                + "}\n");
+    }
+    
+    private static void writeCsv(PrintWriter out, String timestamp, Run run) {
+        out.print(timestamp + "," + System.getProperty("java.version")
+                + "," + run.files
+                + "," + run.pageLimit
+                + "," + run.lines.name().toLowerCase(Locale.ROOT)
+                + "," + run.latency
+                + "," + run.run
+                + "," + millis(run.firstResultNanos)
+                + "," + millis(run.totalNanos)
+                + "," + run.pageRequests
+                + "," + run.moreRequests
+                + "," + run.peakHeap
+                + "," + run.resultFiles
+                + "," + run.resultLines
+                + "\r\n");
+    }
+    
+    private static void print(Run run) {
+        System.out.printf(Locale.ROOT, "%7d %6s %-12s %7d %4d %12s %10s %8d %10.1f%n",
+                run.files, run.pageLimit > 0 ? String.valueOf(run.pageLimit) : "-",
+                run.lines.name().toLowerCase(Locale.ROOT), run.latency, run.run,
+                millis(run.firstResultNanos), millis(run.totalNanos),
+                run.pageRequests + run.moreRequests, run.peakHeap / (1024.0 * 1024));
+    }
+    
+    /**
+     * Formats nanoseconds as milliseconds with three decimals, or as <code>-1</code> if
+     * the time was not taken.
+     */
+    private static String millis(long nanos) {
+        return nanos < 0 ? "-1" : String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+    
+    private static String timestamp() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date());
+    }
+    
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.jfr;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import de.bastisoft.ogre.Instrumentation;
+import de.bastisoft.ogre.event.ActivityListener;
+
+/**
+ * Turns the activities of all scrapers in the VM into Flight Recorder events.
+ * 
+ * <p>After {@link #install}, this class watches the flight recorder and registers itself
+ * as an activity listener only while a recording is running, so that scrapers do not pay
+ * for events nobody records. The event types can be enabled and disabled individually in
+ * the recording settings.
+ */
+public final class JfrEvents implements ActivityListener {
+
+    private static final JfrEvents INSTANCE = new JfrEvents();
+    
+    private static final FlightRecorderListener RECORDER_LISTENER = new FlightRecorderListener() {
+        @Override
+        public void recorderInitialized(FlightRecorder recorder) {
+            update();
+        }
+        
+        @Override
+        public void recordingStateChanged(Recording recording) {
+            update();
+        }
+    };
+    
+    private static boolean installed;
+    private static boolean registered;
+    
+    /** Events that have begun but not finished yet, innermost first. */
+    private final ThreadLocal<Deque<OgreEvent>> open = ThreadLocal.withInitial(ArrayDeque::new);
+    
+    private JfrEvents() {}
+    
+    /**
+     * Starts reporting events whenever a recording is running, unless that has been done
+     * before. Does nothing if the VM has no flight recorder.
+     */
+    public static synchronized void install() {
+        if (installed || !FlightRecorder.isAvailable())
+            return;
+        
+        installed = true;
+        FlightRecorder.addListener(RECORDER_LISTENER);
+        update();
+    }
+    
+    /**
+     * Stops reporting events.
+     */
+    public static synchronized void uninstall() {
+        if (!installed)
+            return;
+        
+        FlightRecorder.removeListener(RECORDER_LISTENER);
+        installed = false;
+        update();
+    }
+    
+    private static synchronized void update() {
+        boolean recording = installed && FlightRecorder.isInitialized() && isRecording();
+        if (recording == registered)
+            return;
+        
+        if (recording)
+            Instrumentation.addActivityListener(INSTANCE);
+        else
+            Instrumentation.removeActivityListener(INSTANCE);
+        registered = recording;
+    }
+    
+    private static boolean isRecording() {
+        for (Recording r : FlightRecorder.getFlightRecorder().getRecordings())
+            if (r.getState() == RecordingState.RUNNING)
+                return true;
+        return false;
+    }
+    
+    @Override
+    public void activityStarted(Kind kind) {
+        OgreEvent event = create(kind);
+        event.begin();
+        open.get().push(event);
+    }
+    
+    @Override
+    public void activityFinished(Kind kind, String url, long bytes, int files, int lines) {
+        OgreEvent event = open.get().poll();
+        if (event == null)
+            return;
+        
+        event.end();
+        if (event.shouldCommit()) {
+            event.url = url;
+            event.bytes = bytes;
+            event.files = files;
+            event.lines = lines;
+            event.commit();
+        }
+    }
+    
+    private static OgreEvent create(Kind kind) {
+        switch (kind) {
+            case SEARCH:     return new SearchEvent();
+            case PAGE_FETCH: return new PageFetchEvent();
+            case MORE_FETCH: return new MoreFetchEvent();
+            case PARSE:      return new ParseEvent();
+            case REPAIR:     return new RepairEvent();
+            default:         throw new IllegalArgumentException(kind.toString());
+        }
+    }
+    
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Common fields of the OGRE events.
+ */
+@Category("OGRE")
+abstract class OgreEvent extends Event {
+
+    @Label("URL")
+    String url;
+    
+    @Label("Size")
+    @Description("Size of the responses; for a repair pass, the number of characters")
+    @DataAmount
+    long bytes;
+    
+    @Label("Files")
+    @Description("Number of files found")
+    int files;
+    
+    @Label("Lines")
+    @Description("Number of line matches found")
+    int lines;
+    
+}
@@ -0,0 +1,512 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.testkit;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local HTTP proxy that makes the connection to a server slow and unreliable, to see how
+ * a scraper copes. Pass {@link #getProxy} to the scraper:
+ * <pre>
+ * try (FaultProxy proxy = new FaultProxy()) {
+ *     proxy.setLatency(LatencyDistribution.logNormal(200, 1));
+ *     proxy.setBandwidth(64 * 1024);
+ *     proxy.setResetRate(0.01);
+ *     proxy.start();
+ *     Scraper scraper = new Scraper(url, proxy.getProxy());
+ *     ...
+ * }</pre>
+ * 
+ * <p>Every request is forwarded to the server on a connection of its own, and the
+ * complete response is read before anything is sent back. Then, in this order:
+ * <ul>
+ * <li>during a burst of server errors, the response is replaced by a 503;
+ * <li>the response is delayed by the latency;
+ * <li>the response is sent at no more than the bandwidth;
+ * <li>the connection may be reset or the body cut short at a random point.
+ * </ul>
+ * Faults are decided independently for every request, from a random number generator
+ * that can be seeded. With requests on several threads, the order in which they draw
+ * their numbers, and so the outcome, is not reproducible.
+ * 
+ * <p>Only plain HTTP is supported; <code>CONNECT</code> requests for HTTPS are refused.
+ * Connections to the client are closed after every response.
+ */
+public class FaultProxy implements Closeable {
+
+    private static final byte[] HEAD_END = {'\r', '\n', '\r', '\n'};
+    
+    private int port;
+    private volatile LatencyDistribution latency;
+    private volatile long bandwidth;
+    private volatile double resetRate;
+    private volatile double truncateRate;
+    private volatile double burstRate;
+    private volatile int burstLength;
+    private final Random random;
+    
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+    private final AtomicInteger burstRemaining = new AtomicInteger();
+    
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger resets = new AtomicInteger();
+    private final AtomicInteger truncations = new AtomicInteger();
+    private final AtomicInteger serverErrors = new AtomicInteger();
+    
+    /**
+     * Creates a proxy that adds no faults until it is configured to.
+     */
+    public FaultProxy() {
+        random = new Random();
+    }
+    
+    /**
+     * Sets the port to listen on. The default is 0, which picks a free port.
+     * 
+     * @param port the port
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+    
+    /**
+     * Seeds the random number generator that decides on delays and faults.
+     * 
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        random.setSeed(seed);
+    }
+    
+    /**
+     * Sets the delay added to every response.
+     * 
+     * @param latency the distribution of delays, or <code>null</code> for none
+     */
+    public void setLatency(LatencyDistribution latency) {
+        this.latency = latency;
+    }
+    
+    /**
+     * Limits the rate at which every response is sent to the client.
+     * 
+     * @param bytesPerSecond the rate, or 0 for no limit
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        bandwidth = Math.max(0, bytesPerSecond);
+    }
+    
+    /**
+     * Sets the share of requests whose connection is reset (with a TCP RST) at a random
+     * point of the response, possibly before anything has been sent.
+     * 
+     * @param rate the probability, between 0 and 1
+     */
+    public void setResetRate(double rate) {
+        resetRate = probability(rate);
+    }
+    
+    /**
+     * Sets the share of requests whose response body is cut short at a random point, after
+     * the complete headers have been sent. The connection is then closed normally.
+     * 
+     * @param rate the probability, between 0 and 1
+     */
+    public void setTruncateRate(double rate) {
+        truncateRate = probability(rate);
+    }
+    
+    /**
+     * Makes the server seem to fail in bursts. Every request that is not already part of a
+     * burst starts one with some probability, and the next <code>length</code> requests,
+     * including this one, get a "503 Service Unavailable" response.
+     * 
+     * @param rate the probability that a burst starts, between 0 and 1
+     * @param length the number of requests in a burst
+     */
+    public void setServerErrorBursts(double rate, int length) {
+        burstRate = probability(rate);
+        burstLength = Math.max(1, length);
+    }
+    
+    private static double probability(double rate) {
+        if (rate < 0 || rate > 1)
+            throw new IllegalArgumentException("Not a probability: " + rate);
+        return rate;
+    }
+    
+    /**
+     * Starts the proxy.
+     * 
+     * @throws IOException if the port cannot be bound
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null)
+            throw new IllegalStateException("Proxy is already running");
+        
+        serverSocket = new ServerSocket(port, 64, InetAddress.getLoopbackAddress());
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ogre-testkit-proxy-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        
+        final ServerSocket ss = serverSocket;
+        final ExecutorService ex = executor;
+        ex.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (!ss.isClosed()) {
+                    try {
+                        final Socket client = ss.accept();
+                        ex.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(client);
+                            }
+                        });
+                    }
+                    catch (IOException e) {
+                        // Closed by stop()
+                    }
+                }
+            }
+        });
+    }
+    
+    /**
+     * Stops the proxy. Requests in progress are abandoned.
+     */
+    public synchronized void stop() {
+        if (serverSocket == null)
+            return;
+        
+        try {
+            serverSocket.close();
+        }
+        catch (IOException e) {
+            // Nothing left to clean up
+        }
+        executor.shutdownNow();
+        serverSocket = null;
+        executor = null;
+    }
+    
+    @Override
+    public void close() {
+        stop();
+    }
+    
+    /**
+     * Returns the proxy configuration to pass to a scraper.
+     * 
+     * @return the proxy
+     */
+    public synchronized Proxy getProxy() {
+        if (serverSocket == null)
+            throw new IllegalStateException("Proxy is not running");
+        return new Proxy(Proxy.Type.HTTP, new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort()));
+    }
+    
+    /**
+     * Returns the number of requests received so far.
+     * 
+     * @return the number of requests
+     */
+    public int requestCount() {
+        return requests.get();
+    }
+    
+    /**
+     * Returns the number of connections reset so far.
+     * 
+     * @return the number of resets
+     */
+    public int resetCount() {
+        return resets.get();
+    }
+    
+    /**
+     * Returns the number of responses cut short so far.
+     * 
+     * @return the number of truncated responses
+     */
+    public int truncatedCount() {
+        return truncations.get();
+    }
+    
+    /**
+     * Returns the number of 503 responses sent in bursts so far.
+     * 
+     * @return the number of server errors
+     */
+    public int serverErrorCount() {
+        return serverErrors.get();
+    }
+    
+    /**
+     * Resets all counts.
+     */
+    public void resetCounts() {
+        requests.set(0);
+        resets.set(0);
+        truncations.set(0);
+        serverErrors.set(0);
+    }
+    
+    private void serve(Socket client) {
+        try (Socket c = client) {
+            InputStream in = new BufferedInputStream(c.getInputStream());
+            byte[] head = readHead(in);
+            if (head == null)
+                return;
+            requests.incrementAndGet();
+            
+            byte[] response = serverErrorBurst() ? errorResponse(503, "Service Unavailable") : forward(head);
+            
+            LatencyDistribution l = latency;
+            if (l != null)
+                Thread.sleep(Math.max(0, l.nextMillis(random)));
+            
+            send(c, response);
+        }
+        catch (IOException e) {
+            // The client went away or the connection was reset on purpose
+        }
+        catch (InterruptedException e) {
+            // The proxy is being stopped
+        }
+    }
+    
+    private boolean serverErrorBurst() {
+        while (true) {
+            int remaining = burstRemaining.get();
+            if (remaining > 0) {
+                if (burstRemaining.compareAndSet(remaining, remaining - 1)) {
+                    serverErrors.incrementAndGet();
+                    return true;
+                }
+            }
+            else if (burstRate > 0 && random.nextDouble() < burstRate) {
+                if (burstRemaining.compareAndSet(0, burstLength - 1)) {
+                    serverErrors.incrementAndGet();
+                    return true;
+                }
+            }
+            else
+                return false;
+        }
+    }
+    
+    /**
+     * Sends the request to the server and returns the complete response, with the
+     * connection to the client marked to be closed.
+     */
+    private byte[] forward(byte[] head) throws IOException {
+        String[] lines = new String(head, StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] request = lines[0].split(" ");
+        if (request.length != 3)
+            return errorResponse(400, "Bad Request");
+        if (!request[0].equals("GET") && !request[0].equals("HEAD"))
+            return errorResponse(501, "Not Implemented");
+        
+        URI uri;
+        try {
+            uri = new URI(request[1]);
+        }
+        catch (URISyntaxException e) {
+            return errorResponse(400, "Bad Request");
+        }
+        if (!"http".equals(uri.getScheme()) || uri.getHost() == null)
+            return errorResponse(400, "Bad Request");
+        
+        StringBuilder upstream = new StringBuilder();
+        upstream.append(request[0]).append(' ').append(uri.getRawPath().isEmpty() ? "/" : uri.getRawPath());
+        if (uri.getRawQuery() != null)
+            upstream.append('?').append(uri.getRawQuery());
+        upstream.append(" HTTP/1.1\r\n");
+        for (int i = 1; i < lines.length; i++) {
+            String name = lines[i].substring(0, Math.max(0, lines[i].indexOf(':'))).trim();
+            if (!isHopByHop(name))
+                upstream.append(lines[i]).append("\r\n");
+        }
+        upstream.append("Connection: close\r\n\r\n");
+        
+        int port = uri.getPort() >= 0 ? uri.getPort() : 80;
+        ByteArrayOutputStream response = new ByteArrayOutputStream(64 * 1024);
+        try (Socket server = new Socket(uri.getHost(), port)) {
+            server.getOutputStream().write(upstream.toString().getBytes(StandardCharsets.ISO_8859_1));
+            server.getOutputStream().flush();
+            
+            InputStream in = server.getInputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > -1)
+                response.write(buffer, 0, n);
+        }
+        catch (IOException e) {
+            return errorResponse(502, "Bad Gateway");
+        }
+        
+        return closeConnection(response.toByteArray());
+    }
+    
+    private static boolean isHopByHop(String header) {
+        return header.equalsIgnoreCase("Connection") || header.equalsIgnoreCase("Proxy-Connection")
+                || header.equalsIgnoreCase("Keep-Alive") || header.equalsIgnoreCase("Proxy-Authorization");
+    }
+    
+    /**
+     * Replaces the connection headers of a response so that the client does not try to
+     * send another request on the same connection.
+     */
+    private static byte[] closeConnection(byte[] response) {
+        int end = indexOf(response, HEAD_END);
+        if (end < 0)
+            return response;
+        
+        String[] lines = new String(response, 0, end, StandardCharsets.ISO_8859_1).split("\r\n");
+        StringBuilder head = new StringBuilder(lines[0]).append("\r\n");
+        for (int i = 1; i < lines.length; i++) {
+            String name = lines[i].substring(0, Math.max(0, lines[i].indexOf(':'))).trim();
+            if (!isHopByHop(name))
+                head.append(lines[i]).append("\r\n");
+        }
+        head.append("Connection: close\r\n\r\n");
+        
+        byte[] h = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        byte[] result = new byte[h.length + response.length - end - HEAD_END.length];
+        System.arraycopy(h, 0, result, 0, h.length);
+        System.arraycopy(response, end + HEAD_END.length, result, h.length, response.length - end - HEAD_END.length);
+        return result;
+    }
+    
+    private static byte[] errorResponse(int status, String reason) {
+        String body = status + " " + reason + "\n";
+        return ("HTTP/1.1 " + status + " " + reason + "\r\nContent-Type: text/plain\r\nContent-Length: " + body.length()
+                + "\r\nConnection: close\r\n\r\n" + body).getBytes(StandardCharsets.ISO_8859_1);
+    }
+    
+    /**
+     * Sends a response, throttled and with the faults that the dice decide on.
+     */
+    private void send(Socket client, byte[] response) throws IOException, InterruptedException {
+        int length = response.length;
+        boolean reset = false;
+        
+        if (resetRate > 0 && random.nextDouble() < resetRate) {
+            reset = true;
+            length = random.nextInt(response.length + 1);
+        }
+        else if (truncateRate > 0 && random.nextDouble() < truncateRate) {
+            int bodyStart = indexOf(response, HEAD_END) + HEAD_END.length;
+            if (bodyStart >= HEAD_END.length && bodyStart < response.length) {
+                length = bodyStart + random.nextInt(response.length - bodyStart);
+                truncations.incrementAndGet();
+            }
+        }
+        
+        OutputStream out = client.getOutputStream();
+        long rate = bandwidth;
+        if (rate <= 0)
+            out.write(response, 0, length);
+        else {
+            // Send in slices of about 50 ms each
+            int slice = (int) Math.max(1, Math.min(64 * 1024, rate / 20));
+            long start = System.nanoTime();
+            for (int sent = 0; sent < length; ) {
+                int n = Math.min(slice, length - sent);
+                out.write(response, sent, n);
+                out.flush();
+                sent += n;
+                
+                long due = start + sent * 1000000000L / rate;
+                long wait = due - System.nanoTime();
+                if (wait > 0)
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            }
+        }
+        out.flush();
+        
+        if (reset) {
+            // Closing with a linger time of 0 sends a RST instead of a FIN
+            try {
+                client.setSoLinger(true, 0);
+            }
+            catch (SocketException e) {
+                // Then it's an ordinary close
+            }
+            resets.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Reads the request line and headers, up to and including the empty line.
+     * 
+     * @return the head, or <code>null</code> if the client closed the connection first
+     */
+    private static byte[] readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream(1024);
+        int matched = 0;
+        int b;
+        while ((b = in.read()) > -1) {
+            head.write(b);
+            matched = b == HEAD_END[matched] ? matched + 1 : b == HEAD_END[0] ? 1 : 0;
+            if (matched == HEAD_END.length)
+                return head.toByteArray();
+            if (head.size() > 64 * 1024)
+                throw new IOException("Request head too large");
+        }
+        return null;
+    }
+    
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+            for (int i = 0; i <= data.length - pattern.length; i++) {
+                for (int j = 0; j < pattern.length; j++)
+                    if (data[i + j] != pattern[j])
+                        continue outer;
+                return i;
+            }
+        return -1;
+    }
+    
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.testkit;
+
+import java.util.Random;
+
+/**
+ * The delays that {@link FaultProxy} adds to responses. Custom distributions, such as
+ * one replayed from measurements, are written by extending this class.
+ */
+public abstract class LatencyDistribution {
+
+    /**
+     * Draws a delay.
+     * 
+     * @param random the source of randomness to use
+     * @return the delay in milliseconds
+     */
+    public abstract long nextMillis(Random random);
+    
+    /**
+     * Returns a distribution that always gives the same delay.
+     * 
+     * @param millis the delay
+     * @return the distribution
+     */
+    public static LatencyDistribution fixed(final long millis) {
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return millis;
+            }
+        };
+    }
+    
+    /**
+     * Returns a distribution with delays spread evenly over a range.
+     * 
+     * @param min the shortest delay
+     * @param max the longest delay
+     * @return the distribution
+     */
+    public static LatencyDistribution uniform(final long min, final long max) {
+        if (max < min)
+            throw new IllegalArgumentException("Empty range: " + min + " to " + max);
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return min + (long) (random.nextDouble() * (max - min + 1));
+            }
+        };
+    }
+    
+    /**
+     * Returns an exponential distribution, in which short delays are common and long ones
+     * rare.
+     * 
+     * @param mean the mean delay
+     * @return the distribution
+     */
+    public static LatencyDistribution exponential(final double mean) {
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return Math.round(-mean * Math.log(1 - random.nextDouble()));
+            }
+        };
+    }
+    
+    /**
+     * Returns a log-normal distribution, which has the long tail of delays seen on real
+     * networks. With a sigma of 1, one delay in ten is about 3.6 times the median, and one
+     * in a hundred about 10 times.
+     * 
+     * @param median the median delay
+     * @param sigma the standard deviation of the logarithm of the delay
+     * @return the distribution
+     */
+    public static LatencyDistribution logNormal(final double median, final double sigma) {
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return Math.round(median * Math.exp(sigma * random.nextGaussian()));
+            }
+        };
+    }
+    
+}
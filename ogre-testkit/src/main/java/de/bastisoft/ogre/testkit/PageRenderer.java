@@ -0,0 +1,294 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.testkit;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Renders pages the way OpenGrok 0.11 does, including, if asked to, the markup errors
+ * that OGRE's CorrectingReader repairs:
+ * <ul>
+ * <li>unclosed <code>meta</code> tags;
+ * <li>an unclosed results div on "no matches" pages;
+ * <li>"&amp;lt;&amp;lt" without the last semicolon in the slider;
+ * <li>unquoted <code>href</code> attributes;
+ * <li>unescaped ampersands and spaces in <code>href</code> attributes.
+ * </ul>
+ */
+class PageRenderer {
+
+    private final SyntheticCorpus corpus;
+    private final String context;
+    private final boolean quirks;
+    
+    /**
+     * @param corpus the corpus
+     * @param context the path of the OpenGrok web application, with a trailing slash
+     * @param quirks whether to produce broken markup
+     */
+    PageRenderer(SyntheticCorpus corpus, String context, boolean quirks) {
+        this.corpus = corpus;
+        this.context = context;
+        this.quirks = quirks;
+    }
+    
+    String home() {
+        StringBuilder sb = new StringBuilder(2048);
+        head(sb, "Search");
+        sb.append("<div id=\"results\"><p class=\"pagetitle\">Enter a search term.</p></div>\n");
+        foot(sb);
+        return sb.toString();
+    }
+    
+    /**
+     * Renders a result page.
+     * 
+     * @param query the query string without the paging parameters, URL-encoded
+     * @param term the search term to highlight
+     * @param start the number of the first file on the page
+     * @param pageSize the number of files per page
+     */
+    String searchPage(String query, String term, int start, int pageSize) {
+        int total = corpus.fileCount();
+        if (start >= total)
+            return noMatches(term);
+        
+        int end = Math.min(total, start + pageSize);
+        StringBuilder sb = new StringBuilder(1024 * (end - start) + 4096);
+        head(sb, "Search");
+        sb.append("<div id=\"results\">\n<p class=\"pagetitle\">Searched <b>");
+        text(sb, term);
+        sb.append("</b> (Results <b>").append(start + 1).append(" - ").append(end);
+        sb.append("</b> of <b>").append(total).append("</b>) sorted by relevance</p>\n");
+        
+        slider(sb, query, start, pageSize);
+        
+        sb.append("<table>\n");
+        String dir = null;
+        for (int file = start; file < end; file++) {
+            String fileDir = corpus.directory(file, quirks);
+            if (!fileDir.equals(dir)) {
+                dir = fileDir;
+                sb.append("<tr class=\"dir\"><td colspan=\"3\"><a href=\"");
+                plainHref(sb, context + "xref" + dir);
+                sb.append("\">");
+                text(sb, dir);
+                sb.append("</a></td></tr>\n");
+            }
+            fileRow(sb, file, dir, term);
+        }
+        sb.append("</table>\n");
+        
+        slider(sb, query, start, pageSize);
+        
+        sb.append("</div>\n");
+        foot(sb);
+        return sb.toString();
+    }
+    
+    private void fileRow(StringBuilder sb, int file, String dir, String term) {
+        String path = dir + corpus.filename(file);
+        
+        sb.append("<tr><td class=\"q\"><a class=\"h\" href=\"");
+        attribute(sb, context + "history" + path);
+        sb.append("\" title=\"History\">H</a> <a class=\"a\" href=\"");
+        attribute(sb, context + "xref" + path + "?a=true");
+        sb.append("\" title=\"Annotate\">A</a></td>");
+        
+        sb.append("<td class=\"f\"><a href=\"");
+        plainHref(sb, context + "xref" + path);
+        sb.append("\">");
+        text(sb, corpus.filename(file));
+        sb.append("</a></td><td><tt class=\"con\">");
+        
+        SyntheticCorpus.Line[] lines = corpus.lines(file);
+        int shown = corpus.shownLines(file);
+        for (int i = 0; i < shown; i++)
+            line(sb, path, lines[i], term);
+        
+        if (shown < lines.length) {
+            sb.append("<a href=\"");
+            plainHref(sb, context + "more" + path + "?full=" + encode(term) + "&defs=&refs=&path=&hist=");
+            sb.append("\">[all...]</a>");
+        }
+        
+        sb.append("</tt></td></tr>\n");
+    }
+    
+    private void line(StringBuilder sb, String path, SyntheticCorpus.Line line, String term) {
+        sb.append("<a class=\"s\" href=\"");
+        attribute(sb, context + "xref" + path + "#" + line.number);
+        sb.append("\"><span class=\"l\">").append(line.number).append("</span>");
+        text(sb, line.before);
+        sb.append("<b>");
+        text(sb, term);
+        sb.append("</b>");
+        text(sb, line.after);
+        sb.append("</a><br/>");
+    }
+    
+    /**
+     * Renders the page slider, which shows the pages in blocks of ten, with links to the
+     * previous and the next block.
+     */
+    private void slider(StringBuilder sb, String query, int start, int pageSize) {
+        int pages = (corpus.fileCount() + pageSize - 1) / pageSize;
+        if (pages < 2)
+            return;
+        
+        int current = start / pageSize;
+        int first = current / 10 * 10;
+        int last = Math.min(pages, first + 10);
+        
+        sb.append("<p class=\"slider\">");
+        if (first > 0) {
+            pageLink(sb, query, (first - 10) * pageSize, pageSize);
+            sb.append(quirks ? "&lt;&lt" : "&lt;&lt;").append("</a>");
+        }
+        for (int page = first; page < last; page++) {
+            if (page == current)
+                sb.append("<span class=\"sel\">").append(page + 1).append("</span>");
+            else {
+                pageLink(sb, query, page * pageSize, pageSize);
+                sb.append(page + 1).append("</a>");
+            }
+        }
+        if (last < pages) {
+            pageLink(sb, query, last * pageSize, pageSize);
+            sb.append("&gt;&gt;</a>");
+        }
+        sb.append("</p>\n");
+    }
+    
+    private void pageLink(StringBuilder sb, String query, int start, int pageSize) {
+        sb.append("<a class=\"more\" href=\"");
+        attribute(sb, "search?" + query + "&n=" + pageSize + "&start=" + start);
+        sb.append("\">");
+    }
+    
+    private String noMatches(String term) {
+        StringBuilder sb = new StringBuilder(2048);
+        head(sb, "Search");
+        sb.append("<div id=\"results\">\n<p class=\"pagetitle\">Your search <b>");
+        text(sb, term);
+        sb.append("</b> did not match any files.</p>\n<p>Suggestions:</p><ul>\n");
+        sb.append("<li>Make sure all terms are spelled correctly.</li>\n");
+        sb.append("<li>Try different keywords.</li>\n</ul>\n");
+        
+        // OpenGrok forgets to close the results div here
+        if (!quirks)
+            sb.append("</div>");
+        foot(sb);
+        return sb.toString();
+    }
+    
+    String morePage(int file, String term) {
+        String path = corpus.directory(file, quirks) + corpus.filename(file);
+        SyntheticCorpus.Line[] lines = corpus.lines(file);
+        
+        StringBuilder sb = new StringBuilder(128 * lines.length + 2048);
+        head(sb, path);
+        sb.append("<div id=\"content\"><p class=\"pagetitle\">Lines Matching <b>");
+        text(sb, term);
+        sb.append("</b></p><div id=\"more\"><pre>\n");
+        for (SyntheticCorpus.Line line : lines) {
+            line(sb, path, line, term);
+            sb.append('\n');
+        }
+        sb.append("</pre></div></div>\n");
+        foot(sb);
+        return sb.toString();
+    }
+    
+    String xrefPage(String path) {
+        StringBuilder sb = new StringBuilder(2048);
+        head(sb, path);
+        sb.append("<div id=\"content\"><pre>// ");
+        text(sb, path);
+        sb.append("</pre></div>\n");
+        foot(sb);
+        return sb.toString();
+    }
+    
+    private void head(StringBuilder sb, String title) {
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">\n");
+        sb.append("<html xmlns=\"http://www.w3.org/1999/xhtml\" xml:lang=\"en\" lang=\"en\">\n<head>\n");
+        sb.append(quirks
+                ? "<meta name=\"robots\" content=\"noindex,nofollow\">\n"
+                : "<meta name=\"robots\" content=\"noindex,nofollow\"/>\n");
+        sb.append("<title>");
+        text(sb, title);
+        sb.append("</title>\n</head>\n<body>\n<div id=\"page\">\n<div id=\"header\">");
+        if (quirks)
+            sb.append("<a href=").append(context).append(">Home</a>");
+        else
+            sb.append("<a href=\"").append(context).append("\">Home</a>");
+        sb.append("</div>\n");
+    }
+    
+    private void foot(StringBuilder sb) {
+        sb.append("<div id=\"footer\"><p>Served by a synthetic OpenGrok</p></div>\n</div>\n</body>\n</html>\n");
+    }
+    
+    /**
+     * Writes the URL of a link of the form <code>&lt;a href="..."&gt;</code>, which OpenGrok
+     * does not escape properly.
+     */
+    private void plainHref(StringBuilder sb, String url) {
+        if (quirks)
+            sb.append(url);
+        else
+            attribute(sb, url.replace(" ", "%20"));
+    }
+    
+    private static void attribute(StringBuilder sb, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&': sb.append("&amp;"); break;
+                case '"': sb.append("&quot;"); break;
+                case '<': sb.append("&lt;"); break;
+                case ' ': sb.append("%20"); break;
+                default:  sb.append(c);
+            }
+        }
+    }
+    
+    private static void text(StringBuilder sb, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&': sb.append("&amp;"); break;
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                default:  sb.append(c);
+            }
+        }
+    }
+    
+    private static String encode(String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+    
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.testkit;
+
+import java.util.Random;
+
+/**
+ * A made-up set of source files that all match any search, for {@link SyntheticOpenGrok}
+ * to serve. Everything about a file is derived from its number and the seed, so the
+ * corpus takes no memory however large it is, and the same configuration always produces
+ * the same pages.
+ * 
+ * <p>Files are numbered from 0 and spread over directories. Every file has the same
+ * number of line matches. Some files are abridged, which means that their result rows
+ * only show the first few line matches and link to a "more" page with all of them.
+ */
+public class SyntheticCorpus {
+
+    private static final String[] WORDS = {
+        "int", "result", "=", "buffer", "length", "return", "if", "(", ")", "value", "count",
+        "index", "final", "node", "next", "size", "+", "1", "null", "!=", "list", "get", "data"
+    };
+    
+    /**
+     * A line match, with the highlighted search term between the two parts of the text.
+     */
+    static class Line {
+        
+        final int number;
+        final String before;
+        final String after;
+        
+        Line(int number, String before, String after) {
+            this.number = number;
+            this.before = before;
+            this.after = after;
+        }
+        
+    }
+    
+    private final int fileCount;
+    private final int linesPerFile;
+    private final double abridgedRatio;
+    private int filesPerDirectory;
+    private int shownLines;
+    private long seed;
+    
+    /**
+     * Creates a corpus.
+     * 
+     * @param fileCount the number of files
+     * @param linesPerFile the number of line matches in every file
+     * @param abridgedRatio the share of files, between 0 and 1, whose result rows are abridged
+     */
+    public SyntheticCorpus(int fileCount, int linesPerFile, double abridgedRatio) {
+        if (fileCount < 0 || linesPerFile < 1)
+            throw new IllegalArgumentException("Invalid corpus size: " + fileCount + " files, " + linesPerFile + " lines");
+        if (abridgedRatio < 0 || abridgedRatio > 1)
+            throw new IllegalArgumentException("Invalid abridged ratio: " + abridgedRatio);
+        
+        this.fileCount = fileCount;
+        this.linesPerFile = linesPerFile;
+        this.abridgedRatio = abridgedRatio;
+        filesPerDirectory = 20;
+        shownLines = 3;
+    }
+    
+    /**
+     * Sets how many files go into a directory. The default is 20.
+     * 
+     * @param files files per directory
+     */
+    public void setFilesPerDirectory(int files) {
+        filesPerDirectory = Math.max(1, files);
+    }
+    
+    /**
+     * Sets how many line matches the result row of an abridged file shows. The default is 3.
+     * Files with no more line matches than this are never abridged.
+     * 
+     * @param lines lines shown
+     */
+    public void setShownLines(int lines) {
+        shownLines = Math.max(1, lines);
+    }
+    
+    /**
+     * Sets the seed from which the line texts and the choice of abridged files are derived.
+     * 
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+    
+    public int fileCount() {
+        return fileCount;
+    }
+    
+    public int linesPerFile() {
+        return linesPerFile;
+    }
+    
+    /**
+     * Returns the total number of line matches in the corpus.
+     * 
+     * @return the number of line matches
+     */
+    public long lineCount() {
+        return (long) fileCount * linesPerFile;
+    }
+    
+    /**
+     * Returns the directory of a file, with leading and trailing slashes.
+     * 
+     * @param file the file number
+     * @return the directory
+     */
+    public String directory(int file) {
+        return directory(file, false);
+    }
+    
+    /**
+     * Returns the directory of a file. With quirks, every seventh directory has a space in
+     * its name, which OpenGrok does not escape in links.
+     */
+    String directory(int file, boolean quirks) {
+        int dir = file / filesPerDirectory;
+        return "/synthetic/module" + (quirks && dir % 7 == 3 ? " " : "") + dir + "/";
+    }
+    
+    /**
+     * Returns the name of a file.
+     * 
+     * @param file the file number
+     * @return the file name
+     */
+    public String filename(int file) {
+        return "File" + file + ".java";
+    }
+    
+    /**
+     * Returns the number of a file by its name, as returned by {@link #filename}.
+     * 
+     * @param filename the file name
+     * @return the file number, or -1 if there is no such file
+     */
+    int fileNumber(String filename) {
+        if (!filename.startsWith("File") || !filename.endsWith(".java"))
+            return -1;
+        try {
+            int file = Integer.parseInt(filename.substring(4, filename.length() - 5));
+            return file >= 0 && file < fileCount ? file : -1;
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Tells whether the result row of a file is abridged.
+     * 
+     * @param file the file number
+     * @return <code>true</code> if the file has a "more" page
+     */
+    public boolean abridged(int file) {
+        if (linesPerFile <= shownLines)
+            return false;
+        
+        // Scatter the abridged files evenly but unpredictably over the corpus
+        long h = (file + seed) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 29;
+        return (h >>> 11) * 0x1.0p-53 < abridgedRatio;
+    }
+    
+    /**
+     * Returns the number of line matches shown in the result row of a file.
+     */
+    int shownLines(int file) {
+        return abridged(file) ? shownLines : linesPerFile;
+    }
+    
+    /**
+     * Generates the line matches of a file.
+     */
+    Line[] lines(int file) {
+        Random random = new Random(seed * 1000003 + file);
+        Line[] lines = new Line[linesPerFile];
+        int number = 0;
+        for (int i = 0; i < linesPerFile; i++) {
+            number += 1 + random.nextInt(40);
+            lines[i] = new Line(number, "    " + words(random, 1 + random.nextInt(6)) + " ", " " + words(random, random.nextInt(8)));
+        }
+        return lines;
+    }
+    
+    private static String words(Random random, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                sb.append(' ');
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+    
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.testkit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded HTTP server that behaves like an OpenGrok server searching a
+ * {@link SyntheticCorpus}. It serves result pages with page sliders, "more" pages for
+ * abridged files and placeholder cross-reference pages, under the path
+ * <code>/source/</code>. Every search matches every file of the corpus, with the first
+ * word of the query highlighted in every line.
+ * 
+ * <p>The server only listens on the loopback interface. It is meant for tests and
+ * measurements that must not depend on a real server or on the network.
+ */
+public class SyntheticOpenGrok implements Closeable {
+
+    private static final String CONTEXT = "/source/";
+    
+    private final SyntheticCorpus corpus;
+    private int port;
+    private int threads;
+    private int pageSize;
+    private boolean quirks;
+    private long responseDelay;
+    
+    private HttpServer server;
+    private ExecutorService executor;
+    private PageRenderer renderer;
+    
+    private final AtomicInteger pageRequests = new AtomicInteger();
+    private final AtomicInteger moreRequests = new AtomicInteger();
+    private final AtomicInteger otherRequests = new AtomicInteger();
+    
+    /**
+     * Creates a server for a corpus. The server has to be started before it can be used.
+     * 
+     * @param corpus the corpus to serve
+     */
+    public SyntheticOpenGrok(SyntheticCorpus corpus) {
+        this.corpus = corpus;
+        threads = 8;
+        pageSize = 25;
+        quirks = true;
+    }
+    
+    /**
+     * Sets the port to listen on. The default is 0, which picks a free port.
+     * 
+     * @param port the port
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+    
+    /**
+     * Sets the number of threads that handle requests. The default is 8.
+     * 
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+    
+    /**
+     * Sets the number of files on a result page, unless the request asks for a different
+     * number. The default is 25, like OpenGrok's.
+     * 
+     * @param pageSize files per page
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = Math.max(1, pageSize);
+    }
+    
+    /**
+     * Sets whether pages contain the markup errors of real OpenGrok servers. The default is
+     * <code>true</code>.
+     * 
+     * @param quirks whether to produce broken markup
+     */
+    public void setQuirks(boolean quirks) {
+        this.quirks = quirks;
+    }
+    
+    /**
+     * Sets a delay before every response, to simulate a slow server.
+     * 
+     * @param millis delay in milliseconds
+     */
+    public void setResponseDelay(long millis) {
+        responseDelay = Math.max(0, millis);
+    }
+    
+    /**
+     * Starts the server.
+     * 
+     * <p>Unless it has been set already, this sets the system property
+     * <code>sun.net.httpserver.nodelay</code> to <code>true</code>, which affects all
+     * servers of the JDK's <code>com.sun.net.httpserver</code> package in the VM that are
+     * created later on. Without it, every response waits 40 ms for a delayed ACK on Linux,
+     * because the headers and the body are sent in separate packets.
+     * 
+     * @throws IOException if the port cannot be bound
+     */
+    public synchronized void start() throws IOException {
+        if (server != null)
+            throw new IllegalStateException("Server is already running");
+        
+        // Read once, when the first server of the VM is created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        
+        renderer = new PageRenderer(corpus, CONTEXT, quirks);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 64);
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ogre-testkit-http-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext(CONTEXT, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                }
+                finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+    
+    /**
+     * Stops the server. Requests in progress are abandoned.
+     */
+    public synchronized void stop() {
+        if (server == null)
+            return;
+        
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+        executor = null;
+    }
+    
+    @Override
+    public void close() {
+        stop();
+    }
+    
+    /**
+     * Returns the URL of the search form, which is what a scraper has to be given.
+     * 
+     * @return the URL
+     */
+    public synchronized URL getURL() {
+        if (server == null)
+            throw new IllegalStateException("Server is not running");
+        
+        try {
+            return new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), CONTEXT);
+        }
+        catch (MalformedURLException e) {
+            // Cannot happen with the http protocol
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    public SyntheticCorpus getCorpus() {
+        return corpus;
+    }
+    
+    /**
+     * Returns the number of result pages served so far.
+     * 
+     * @return the number of result pages
+     */
+    public int pageRequestCount() {
+        return pageRequests.get();
+    }
+    
+    /**
+     * Returns the number of "more" pages served so far.
+     * 
+     * @return the number of "more" pages
+     */
+    public int moreRequestCount() {
+        return moreRequests.get();
+    }
+    
+    /**
+     * Returns the number of requests served so far, including those for other pages and
+     * those that failed.
+     * 
+     * @return the number of requests
+     */
+    public int requestCount() {
+        return pageRequests.get() + moreRequests.get() + otherRequests.get();
+    }
+    
+    /**
+     * Resets the request counts.
+     */
+    public void resetCounts() {
+        pageRequests.set(0);
+        moreRequests.set(0);
+        otherRequests.set(0);
+    }
+    
+    private void serve(HttpExchange exchange) throws IOException {
+        if (responseDelay > 0) {
+            try {
+                Thread.sleep(responseDelay);
+            }
+            catch (InterruptedException e) {
+                // The server is being stopped
+                return;
+            }
+        }
+        
+        String path = exchange.getRequestURI().getPath().substring(CONTEXT.length() - 1);
+        Map<String, String> params = parameters(exchange.getRequestURI().getRawQuery());
+        
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            otherRequests.incrementAndGet();
+            respond(exchange, 405, "Only GET is supported");
+        }
+        
+        else if (path.equals("/")) {
+            otherRequests.incrementAndGet();
+            respond(exchange, 200, renderer.home());
+        }
+        
+        else if (path.equals("/search")) {
+            pageRequests.incrementAndGet();
+            int start = number(params.get("start"), 0);
+            int n = number(params.get("n"), pageSize);
+            String query = stripPaging(exchange.getRequestURI().getRawQuery());
+            respond(exchange, 200, renderer.searchPage(query, term(params), Math.max(0, start), Math.max(1, n)));
+        }
+        
+        else if (path.startsWith("/more/")) {
+            moreRequests.incrementAndGet();
+            int file = corpus.fileNumber(path.substring(path.lastIndexOf('/') + 1));
+            if (file < 0)
+                respond(exchange, 404, "No such file: " + path);
+            else
+                respond(exchange, 200, renderer.morePage(file, term(params)));
+        }
+        
+        else if (path.startsWith("/xref/")) {
+            otherRequests.incrementAndGet();
+            respond(exchange, 200, renderer.xrefPage(path.substring(5)));
+        }
+        
+        else {
+            otherRequests.incrementAndGet();
+            respond(exchange, 404, "Not found: " + path);
+        }
+    }
+    
+    private static void respond(HttpExchange exchange, int status, String page) throws IOException {
+        byte[] body = page.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", status == 200 ? "text/html;charset=UTF-8" : "text/plain;charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+    
+    private static Map<String, String> parameters(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null)
+            return params;
+        
+        for (String param : query.split("&")) {
+            int eq = param.indexOf('=');
+            if (eq > 0)
+                params.put(decode(param.substring(0, eq)), decode(param.substring(eq + 1)));
+        }
+        return params;
+    }
+    
+    /**
+     * Removes the paging parameters from a query string, so that the slider can add its own.
+     */
+    private static String stripPaging(String query) {
+        StringBuilder sb = new StringBuilder();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (param.startsWith("start=") || param.startsWith("n=") || param.isEmpty())
+                    continue;
+                if (sb.length() > 0)
+                    sb.append('&');
+                sb.append(param);
+            }
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Picks the word to highlight: the first word of the first query field that has one.
+     */
+    private static String term(Map<String, String> params) {
+        for (String field : new String[] {"q", "defs", "refs", "path", "hist", "full"}) {
+            String value = params.get(field);
+            if (value == null)
+                continue;
+            
+            int start = 0;
+            while (start < value.length() && !Character.isLetterOrDigit(value.charAt(start)))
+                start++;
+            int end = start;
+            while (end < value.length() && (Character.isLetterOrDigit(value.charAt(end)) || value.charAt(end) == '_'))
+                end++;
+            if (end > start)
+                return value.substring(start, end);
+        }
+        return "match";
+    }
+    
+    private static int number(String s, int defaultValue) {
+        if (s == null)
+            return defaultValue;
+        try {
+            return Integer.parseInt(s);
+        }
+        catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+    
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        }
+        catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return s;
+        }
+    }
+    
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.testkit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.bastisoft.ogre.FileMatch;
+import de.bastisoft.ogre.LineMatch;
+import de.bastisoft.ogre.Scraper;
+import de.bastisoft.ogre.ScraperException;
+import de.bastisoft.ogre.SearchResult;
+
+/**
+ * Runs complete searches with a {@link Scraper} against a {@link SyntheticOpenGrok} server.
+ */
+public class ScraperSmokeTest {
+
+    private static final int FILES = 120;
+    private static final int LINES_PER_FILE = 4;
+    
+    private SyntheticCorpus corpus;
+    private SyntheticOpenGrok server;
+    private Scraper scraper;
+    
+    @Before
+    public void startServer() throws IOException {
+        corpus = new SyntheticCorpus(FILES, LINES_PER_FILE, 0.25);
+        server = new SyntheticOpenGrok(corpus);
+        server.start();
+        
+        scraper = new Scraper(server.getURL());
+    }
+    
+    @After
+    public void stopServer() {
+        server.close();
+    }
+    
+    @Test
+    public void findsAllFilesAndLines() throws ScraperException, IOException {
+        scraper.setPageLimit(100);
+        scraper.setFetchLines(true);
+        
+        try (SearchResult result = scraper.search("foo", null, null, null, null, null)) {
+            assertFalse(result.pageLimitTriggered());
+            assertFalse(result.aborted());
+            assertEquals(FILES, result.fileCount());
+            assertEquals(corpus.lineCount(), result.lineCount());
+            assertEquals(0, result.abridgedFileCount());
+            assertEquals(0, result.unfetchedPageCount());
+            
+            Set<String> names = new HashSet<>();
+            for (FileMatch match : result.files()) {
+                assertTrue(names.add(match.getFilename()));
+                for (LineMatch line : match.getLines())
+                    assertFalse(line.getHighlights().isEmpty());
+            }
+            for (int i = 0; i < FILES; i++)
+                assertTrue(names.contains(corpus.filename(i)));
+        }
+    }
+    
+    @Test
+    public void stopsAtPageLimit() throws ScraperException, IOException {
+        scraper.setPageLimit(2);
+        
+        try (SearchResult result = scraper.search("foo", null, null, null, null, null)) {
+            assertTrue(result.pageLimitTriggered());
+            assertEquals(2, result.fetchedPageCount());
+            assertTrue(result.fileCount() < FILES);
+            assertEquals(2, server.pageRequestCount());
+        }
+    }
+    
+    @Test
+    public void leavesAbridgedFilesWithoutFetchLines() throws ScraperException, IOException {
+        scraper.setPageLimit(100);
+        scraper.setFetchLines(false);
+        
+        try (SearchResult result = scraper.search("foo", null, null, null, null, null)) {
+            assertEquals(FILES, result.fileCount());
+            assertTrue(result.abridgedFileCount() > 0);
+            assertTrue(result.lineCount() < corpus.lineCount());
+            assertEquals(0, server.moreRequestCount());
+        }
+    }
+    
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.bastisoft.ogre.event.ProgressListener;
+import de.bastisoft.ogre.event.ResultReceiver;
+
+/**
+ * Runs several searches at the same time and combines their results, for questions that
+ * cannot be put to OpenGrok in a single query, such as files that define a symbol but do
+ * not reference another one.
+ * 
+ * <p>Files are matched up by their full path. The combined result has new file matches
+ * that share their line matches with the results of the individual searches:
+ * 
+ * <ul>
+ * <li>{@link Operation#UNION} has the files found by any search, with the line matches
+ *     of all searches that found them.
+ * <li>{@link Operation#INTERSECTION} has the files found by all searches. If lines are
+ *     matched as well (see {@link #setMatchLines}), only lines found by all searches
+ *     are kept, and files without such lines are left out; otherwise, the files have
+ *     the line matches of all searches.
+ * <li>{@link Operation#DIFFERENCE} has the files found by the first search, but by none
+ *     of the others. If lines are matched as well, files found by the other searches are
+ *     kept with the lines that the other searches did not find, if there are any.
+ * </ul>
+ * 
+ * <p>Combined matches are passed to result receivers as soon as they are certain: for
+ * unions right away, for intersections once a file has been found by every search, and
+ * for differences once all but the first search have completed.
+ * 
+ * <p>Every search runs on a thread of its own, with a scraper that has the configuration
+ * of the one given to the constructor; its listeners, receivers and stop conditions are
+ * not used.
+ */
+public class CombinedSearch {
+
+    public enum Operation { UNION, INTERSECTION, DIFFERENCE }
+    
+    private final Scraper scraper;
+    private final Operation operation;
+    private final Query[] queries;
+    private final Collection<ResultReceiver> resultReceivers;
+    private boolean matchLines;
+    
+    private final List<Scraper> running;
+    private volatile boolean aborted;
+    
+    // Guarded by this
+    private Map<String, FileMatch[]> found;
+    private boolean[] complete;
+    private SearchResult combined;
+    
+    /**
+     * Creates a combined search.
+     * 
+     * @param scraper the scraper whose configuration is used for the searches
+     * @param operation how the results are combined
+     * @param queries the searches; for differences, the first one is the one that others
+     *          are subtracted from
+     */
+    public CombinedSearch(Scraper scraper, Operation operation, Query... queries) {
+        if (queries.length < 1)
+            throw new IllegalArgumentException("No queries");
+        
+        this.scraper = scraper;
+        this.operation = operation;
+        this.queries = queries.clone();
+        resultReceivers = new ArrayList<>();
+        running = new ArrayList<>();
+    }
+    
+    /**
+     * Configures whether intersections and differences are computed on line numbers as
+     * well as on files. The default is <code>false</code>.
+     * 
+     * @param matchLines whether to match lines
+     */
+    public void setMatchLines(boolean matchLines) {
+        this.matchLines = matchLines;
+    }
+    
+    /**
+     * Adds a result receiver that receives the combined file matches as they become known.
+     * 
+     * @param receiver result receiver
+     */
+    public void addResultReceiver(ResultReceiver receiver) {
+        resultReceivers.add(receiver);
+    }
+    
+    /**
+     * Aborts all searches that are still running.
+     */
+    public void abort() {
+        aborted = true;
+        synchronized (running) {
+            for (Scraper s : running)
+                s.abort();
+        }
+    }
+    
+    /**
+     * Runs the searches and combines their results. The method returns when all searches
+     * have completed.
+     * 
+     * @return the combined result
+     * @throws ScraperException if one of the searches fails; the others are aborted
+     */
+    public SearchResult run() throws ScraperException {
+        synchronized (this) {
+            found = new HashMap<>();
+            complete = new boolean[queries.length];
+            combined = new SearchResult(null, null);
+        }
+        aborted = false;
+        
+        ExecutorService executor = Executors.newFixedThreadPool(queries.length);
+        List<Future<SearchResult>> futures = new ArrayList<>(queries.length);
+        List<SearchResult> results = new ArrayList<>(queries.length);
+        boolean complete = false;
+        try {
+            for (int i = 0; i < queries.length; i++) {
+                final int index = i;
+                final Scraper s = scraper.copy();
+                s.addResultReceiver(new ResultReceiver() {
+                    @Override
+                    public void newFileMatches(Collection<FileMatch> newMatches) {
+                        for (FileMatch match : newMatches)
+                            found(index, match);
+                    }
+                    
+                    @Override
+                    public void newLineMatches(FileMatch amendedMatch) {
+                        found(index, amendedMatch);
+                    }
+                });
+                
+                /* Scraper.search() clears an abort that arrives before the search has started,
+                 * so the abort is repeated once the search is under way. */
+                s.addProgressListener(new ProgressListener() {
+                    @Override
+                    public void progress(Phase phase, int current, int pending) {
+                        if (aborted)
+                            s.abort();
+                    }
+                    
+                    @Override
+                    public void currentCounts(int dirCount, int fileCount, int lineCount) {}
+                });
+                
+                synchronized (running) {
+                    running.add(s);
+                }
+                if (aborted)
+                    s.abort();
+                
+                futures.add(executor.submit(new Callable<SearchResult>() {
+                    @Override
+                    public SearchResult call() throws ScraperException {
+                        SearchResult result = s.search(queries[index]);
+                        completed(index);
+                        return result;
+                    }
+                }));
+            }
+            
+            try {
+                for (Future<SearchResult> future : futures)
+                    results.add(future.get());
+            }
+            catch (ExecutionException e) {
+                abort();
+                if (e.getCause() instanceof ScraperException)
+                    throw (ScraperException) e.getCause();
+                throw new ScraperException("Error executing search query: " + e.getCause().getMessage(), e.getCause());
+            }
+            catch (InterruptedException e) {
+                abort();
+                Thread.currentThread().interrupt();
+                throw new ScraperException("Interrupted while waiting for search results", e);
+            }
+            
+            SearchResult result;
+            synchronized (this) {
+                result = combined;
+            }
+            for (SearchResult r : results) {
+                if (r.pageLimitTriggered())
+                    result.setPageLimitTriggered(true);
+                if (r.aborted())
+                    result.setAborted(true);
+                if (r.stopped())
+                    result.setStopped(true);
+            }
+            complete = true;
+            return result;
+        }
+        finally {
+            if (!complete)
+                closeRemaining(futures, results);
+            for (SearchResult r : results)
+                close(r);
+            
+            executor.shutdown();
+            synchronized (running) {
+                running.clear();
+            }
+        }
+    }
+    
+    /**
+     * Waits for the searches of a failed run that have not been received yet, and closes
+     * their results. The searches have been aborted, so this takes no longer than the
+     * requests that are under way. Cancelling the futures instead would lose the results
+     * of searches that are running, and with them their spill files.
+     */
+    private void closeRemaining(List<Future<SearchResult>> futures, List<SearchResult> received) {
+        abort();
+        
+        boolean interrupted = Thread.interrupted();
+        for (int i = received.size(); i < futures.size(); i++) {
+            Future<SearchResult> future = futures.get(i);
+            try {
+                close(future.get());
+            }
+            catch (ExecutionException e) {
+                // Failed as well, there is no result to close
+            }
+            catch (InterruptedException e) {
+                // Keep waiting, the result has to be closed all the same
+                interrupted = true;
+                i--;
+            }
+        }
+        
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+    
+    private static void close(SearchResult result) {
+        try {
+            result.close();
+        }
+        catch (IOException e) {
+            // Only a temporary file is left behind, which is removed on exit anyway
+        }
+    }
+    
+    private synchronized void found(int index, FileMatch match) {
+        FileMatch[] matches = found.get(match.getFullName());
+        if (matches == null)
+            found.put(match.getFullName(), matches = new FileMatch[queries.length]);
+        matches[index] = match;
+        combine(matches);
+    }
+    
+    private synchronized void completed(int index) {
+        complete[index] = true;
+        
+        // Differences can only be decided once the searches to subtract are complete
+        if (operation == Operation.DIFFERENCE && index > 0)
+            for (FileMatch[] matches : found.values())
+                if (matches[0] != null)
+                    combine(matches);
+    }
+    
+    /**
+     * Adds a file to the combined result, or amends it there, if the matches found so far
+     * say that it belongs there.
+     */
+    private void combine(FileMatch[] matches) {
+        Collection<LineMatch> lines = null;
+        switch (operation) {
+            case UNION:
+                lines = unionOfLines(matches);
+                break;
+            
+            case INTERSECTION:
+                for (FileMatch m : matches)
+                    if (m == null)
+                        return;
+                if (!matchLines)
+                    lines = unionOfLines(matches);
+                else if ((lines = intersectionOfLines(matches)).isEmpty())
+                    return;
+                break;
+            
+            case DIFFERENCE:
+                if (matches[0] == null)
+                    return;
+                for (int i = 1; i < matches.length; i++)
+                    if (!complete[i])
+                        return;
+                
+                boolean foundElsewhere = false;
+                for (int i = 1; i < matches.length; i++)
+                    foundElsewhere |= matches[i] != null;
+                
+                if (!foundElsewhere)
+                    lines = matches[0].getLines();
+                else if (!matchLines || (lines = differenceOfLines(matches)).isEmpty())
+                    return;
+                break;
+        }
+        
+        FileMatch model = null;
+        WebLink moreLink = null;
+        for (FileMatch m : matches) {
+            if (m == null)
+                continue;
+            if (model == null)
+                model = m;
+            if (m.abridged() && moreLink == null)
+                moreLink = m.getMoreLink();
+        }
+        
+        FileMatch update = new FileMatch(model.getDirectory(), model.getFilename(), model.getXrefLink());
+        update.addLines(lines);
+        if (moreLink != null)
+            update.setAbridged(moreLink);
+        
+        // Nothing else changes the combined result, so its line count tells if lines were added
+        int linesBefore = combined.lineCount();
+        FileMatch merged = combined.mergeFileMatch(update);
+        if (merged == update)
+            notifyNewFileMatches(Collections.singletonList(merged));
+        else if (combined.lineCount() > linesBefore)
+            notifyNewLineMatches(merged);
+    }
+    
+    private static Collection<LineMatch> unionOfLines(FileMatch[] matches) {
+        Map<Integer, LineMatch> lines = new TreeMap<>();
+        for (FileMatch m : matches)
+            if (m != null)
+                for (LineMatch line : m.getLines())
+                    if (!lines.containsKey(line.getLineNumber()))
+                        lines.put(line.getLineNumber(), line);
+        return lines.values();
+    }
+    
+    private static Collection<LineMatch> intersectionOfLines(FileMatch[] matches) {
+        Map<Integer, LineMatch> lines = new TreeMap<>();
+        for (LineMatch line : matches[0].getLines())
+            lines.put(line.getLineNumber(), line);
+        
+        for (int i = 1; i < matches.length; i++) {
+            Map<Integer, LineMatch> common = new TreeMap<>();
+            for (LineMatch line : matches[i].getLines())
+                if (lines.containsKey(line.getLineNumber()))
+                    common.put(line.getLineNumber(), lines.get(line.getLineNumber()));
+            lines = common;
+        }
+        return lines.values();
+    }
+    
+    private static Collection<LineMatch> differenceOfLines(FileMatch[] matches) {
+        Map<Integer, LineMatch> lines = new TreeMap<>();
+        for (LineMatch line : matches[0].getLines())
+            lines.put(line.getLineNumber(), line);
+        
+        for (int i = 1; i < matches.length; i++)
+            if (matches[i] != null)
+                for (LineMatch line : matches[i].getLines())
+                    lines.remove(line.getLineNumber());
+        return lines.values();
+    }
+    
+    private void notifyNewFileMatches(Collection<FileMatch> matches) {
+        for (ResultReceiver r : resultReceivers)
+            r.newFileMatches(matches);
+    }
+    
+    private void notifyNewLineMatches(FileMatch match) {
+        for (ResultReceiver r : resultReceivers)
+            r.newLineMatches(match);
+    }
+    
+}
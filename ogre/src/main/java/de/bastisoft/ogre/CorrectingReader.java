@@ -22,6 +22,7 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -35,26 +36,50 @@ import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
+import de.bastisoft.ogre.event.ActivityListener;
+import de.bastisoft.ogre.event.ActivityListener.Kind;
+
 /**
  * Deals with all the discrepancies between the XHTML returned by OpenGrok servers and
  * actual valid XML documents.
- *
+ * 
  * @author Sebastian Koppehel
  */
 class CorrectingReader {
 
     private InputStream input;
     private Charset charset;
+    private URL source;
     
     public CorrectingReader(InputStream input, Charset charset) {
+        this(input, charset, null);
+    }
+    
+    /**
+     * @param source the URL the input comes from, under which repairing and parsing is
+     *          reported to {@link Instrumentation}
+     */
+    public CorrectingReader(InputStream input, Charset charset, URL source) {
         this.input = input;
         this.charset = charset;
+        this.source = source;
     }
     
     public Document parse() throws IOException, ParserConfigurationException, SAXException {
         String data = readData();
         
-        data = fix(data);
+        String host = source != null ? source.getHost() : null;
+        
+        ActivityListener[] tracers = Instrumentation.begin(Kind.REPAIR);
+        long start = Instrumentation.start();
+        try {
+            data = fix(data);
+        }
+        finally {
+            Instrumentation.end(host, Stage.REPAIR, start);
+            if (tracers.length > 0)
+                Instrumentation.finish(tracers, Kind.REPAIR, source != null ? source.toExternalForm() : null, data.length(), 0, 0);
+        }
         
         DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
         builder.setEntityResolver(new EntityResolver() {
@@ -64,7 +89,10 @@ class CorrectingReader {
             }
         });
         
-        return builder.parse(new InputSource(new StringReader(data)));
+        start = Instrumentation.start();
+        Document document = builder.parse(new InputSource(new StringReader(data)));
+        Instrumentation.end(host, Stage.DOM, start);
+        return document;
     }
     
     private String readData() throws IOException {
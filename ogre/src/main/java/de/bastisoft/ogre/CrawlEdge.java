@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+/**
+ * An edge of the graph walked by a {@link ReferenceCrawler}: a symbol that was searched
+ * for, a symbol that a line match of the search led to, and that line match.
+ */
+public class CrawlEdge {
+
+    private String from;
+    private String to;
+    private FileMatch file;
+    private LineMatch line;
+    private int depth;
+    
+    CrawlEdge(String from, String to, FileMatch file, LineMatch line, int depth) {
+        this.from = from;
+        this.to = to;
+        this.file = file;
+        this.line = line;
+        this.depth = depth;
+    }
+    
+    /**
+     * Returns the symbol that was searched for.
+     * 
+     * @return the searched symbol
+     */
+    public String getFrom() {
+        return from;
+    }
+    
+    /**
+     * Returns the symbol that the line match led to, e.g. the function that contains a
+     * reference to the searched symbol.
+     * 
+     * @return the symbol found
+     */
+    public String getTo() {
+        return to;
+    }
+    
+    /**
+     * Returns the file in which the line match was found. If the scraper keeps line matches
+     * in a spill file, the line matches of this file can no longer be read once the edge
+     * has been reported.
+     * 
+     * @return the file match
+     */
+    public FileMatch getFile() {
+        return file;
+    }
+    
+    public LineMatch getLine() {
+        return line;
+    }
+    
+    /**
+     * Returns the depth of the searched symbol; the symbols the crawl starts from have
+     * depth 0.
+     * 
+     * @return the depth
+     */
+    public int getDepth() {
+        return depth;
+    }
+    
+    @Override
+    public String toString() {
+        return from + " -> " + to + " (" + file.getFullName() + ":" + line.getLineNumber() + ")";
+    }
+    
+}
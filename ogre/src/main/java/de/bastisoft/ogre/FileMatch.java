@@ -16,10 +16,12 @@
 
 package de.bastisoft.ogre;
 
-import java.util.ArrayList;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 /**
  * Represents a search hit for a single file, including information about the lines in the
@@ -30,22 +32,88 @@ import java.util.TreeMap;
  * abridged. Depending on how the query is configured, it may or may not be be amended with
  * the full set of line matches at a later point in time.
  * 
+ * <p>The line matches are kept in an array sorted by line number that is never modified
+ * once it has been published. Adding lines creates a new array and swaps it in, so readers
+ * never need a lock and never see a partially updated set of lines.
+ * 
+ * <p>If the search result uses a spill file, the lines are not kept on the heap at all
+ * but written to the file, and every change writes a new block. Reading the lines pages
+ * the current block back in; it is kept in memory only as long as the garbage collector
+ * leaves it alone.
+ * 
  * @author Sebastian Koppehel
  */
 public class FileMatch {
 
+    private static final LineMatch[] NO_LINES = new LineMatch[0];
+    
+    private static final Comparator<LineMatch> BY_LINE_NUMBER = new Comparator<LineMatch>() {
+        @Override
+        public int compare(LineMatch o1, LineMatch o2) {
+            return Integer.compare(o1.getLineNumber(), o2.getLineNumber());
+        }
+    };
+    
     private String directory;
     private String filename;
+    private String fullName;
     private WebLink xrefLink;
-    private SortedMap<Integer, LineMatch> lineMatches;
-    private boolean abridged;
-    private WebLink moreLink;
+    private final Object linesLock = new Object();
+    
+    // Exactly one of these is non-null; spilled is always set before lines is cleared
+    private volatile LineMatch[] lines;
+    private volatile Spilled spilled;
+    private volatile boolean abridged;
+    private volatile WebLink moreLink;
+    
+    /**
+     * Location of the line matches of a file match in a line store.
+     */
+    private static class Spilled {
+        
+        final LineStore store;
+        final long address;
+        final int count;
+        volatile SoftReference<LineMatch[]> pagedIn;
+        
+        Spilled(LineStore store, long address, int count) {
+            this.store = store;
+            this.address = address;
+            this.count = count;
+        }
+        
+        LineMatch[] load(WebLink xrefLink) {
+            SoftReference<LineMatch[]> ref = pagedIn;
+            LineMatch[] lines = ref != null ? ref.get() : null;
+            if (lines == null) {
+                lines = store.read(address, xrefLink);
+                pagedIn = new SoftReference<>(lines);
+            }
+            return lines;
+        }
+        
+    }
     
     FileMatch(String directory, String filename, WebLink xrefLink) {
         this.directory = directory;
         this.filename = filename;
         this.xrefLink = xrefLink;
-        lineMatches = new TreeMap<>();
+        fullName = directory + filename;
+        lines = NO_LINES;
+    }
+    
+    /**
+     * Creates an independent copy of this file match. The copy starts out with the same
+     * line matches and abridged status, but changes to one do not affect the other.
+     * 
+     * @return the copy
+     */
+    FileMatch copy() {
+        FileMatch copy = new FileMatch(directory, filename, xrefLink);
+        copy.lines = lines();
+        if (abridged)
+            copy.setAbridged(moreLink);
+        return copy;
     }
     
     /**
@@ -56,24 +124,37 @@ public class FileMatch {
      * @return <code>true</code> is the line was not yet known
      */
     boolean addLine(LineMatch line) {
-        synchronized (lineMatches) {
-            if (lineMatches.get(line.getLineNumber()) == null) {
-                lineMatches.put(line.getLineNumber(), line);
-                return true;
-            }
+        synchronized (linesLock) {
+            LineMatch[] current = lines();
+            int pos = find(current, line.getLineNumber());
+            if (pos >= 0)
+                return false;
+            
+            pos = -pos - 1;
+            LineMatch[] updated = new LineMatch[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, pos);
+            updated[pos] = line;
+            System.arraycopy(current, pos, updated, pos + 1, current.length - pos);
+            publish(updated);
+            return true;
         }
-        
-        return false;
+    }
+    
+    /**
+     * Adds a number of lines to the line matches of the file match at once. Lines that
+     * are already known are ignored.
+     * 
+     * @param newLines the line matches
+     * @return the number of lines that were not yet known
+     */
+    int addLines(Collection<LineMatch> newLines) {
+        LineMatch[] sorted = newLines.toArray(new LineMatch[newLines.size()]);
+        Arrays.sort(sorted, BY_LINE_NUMBER);
+        return mergeSorted(sorted);
     }
     
     int merge(FileMatch other) {
-        int added;
-        
-        synchronized (lineMatches) {
-            added = lineMatches.size();
-            lineMatches.putAll(other.lineMatches);
-            added = lineMatches.size() - added;
-        }
+        int added = mergeSorted(other.lines());
         
         /* How should we deal with the "abridged" status here? If either the existing
          * match or the one that was merged in did not have abridged status - i.e., had
@@ -88,6 +169,117 @@ public class FileMatch {
         return added;
     }
     
+    /**
+     * Merges a sorted array of line matches into the line matches of this file match.
+     * Where both contain a line, the line already known is kept. The new array is built
+     * in a single pass and published when it is complete.
+     */
+    private int mergeSorted(LineMatch[] other) {
+        if (other.length == 0)
+            return 0;
+        
+        synchronized (linesLock) {
+            LineMatch[] current = lines();
+            LineMatch[] merged = new LineMatch[current.length + other.length];
+            
+            int i = 0, j = 0, n = 0;
+            while (i < current.length || j < other.length) {
+                if (j == other.length)
+                    merged[n++] = current[i++];
+                else if (i == current.length) {
+                    if (n == 0 || merged[n - 1].getLineNumber() != other[j].getLineNumber())
+                        merged[n++] = other[j];
+                    j++;
+                }
+                else {
+                    int a = current[i].getLineNumber(), b = other[j].getLineNumber();
+                    if (a <= b) {
+                        merged[n++] = current[i++];
+                        if (a == b)
+                            j++;
+                    }
+                    else {
+                        if (n == 0 || merged[n - 1].getLineNumber() != b)
+                            merged[n++] = other[j];
+                        j++;
+                    }
+                }
+            }
+            
+            if (n == current.length)
+                return 0;
+            
+            publish(n == merged.length ? merged : Arrays.copyOf(merged, n));
+            return n - current.length;
+        }
+    }
+    
+    /**
+     * Returns the current line matches, paging them in from the line store if necessary.
+     */
+    private LineMatch[] lines() {
+        LineMatch[] current = lines;
+        return current != null ? current : spilled.load(xrefLink);
+    }
+    
+    /**
+     * Makes a new array of line matches the current one. Must be called with the lock held.
+     */
+    private void publish(LineMatch[] updated) {
+        Spilled current = spilled;
+        if (current == null)
+            lines = updated;
+        else
+            spilled = new Spilled(current.store, current.store.write(updated, xrefLink), updated.length);
+    }
+    
+    /**
+     * Moves the line matches of this file match into a line store. From now on, the line
+     * matches are kept only in the store, including those added later.
+     * 
+     * @param store the line store
+     */
+    void spillTo(LineStore store) {
+        synchronized (linesLock) {
+            LineMatch[] current = lines;
+            if (current == null)
+                return;
+            
+            spilled = new Spilled(store, store.write(current, xrefLink), current.length);
+            lines = null;
+        }
+    }
+    
+    /**
+     * Sets the line matches of this file match to a block that is already in a line store.
+     * This replaces any line matches the file match had before.
+     * 
+     * @param store the line store
+     * @param address address of the block in the store
+     * @param count number of line matches in the block
+     */
+    void attachLines(LineStore store, long address, int count) {
+        synchronized (linesLock) {
+            spilled = new Spilled(store, address, count);
+            lines = null;
+        }
+    }
+    
+    private static int find(LineMatch[] lines, int lineNumber) {
+        int lo = 0, hi = lines.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int n = lines[mid].getLineNumber();
+            if (n < lineNumber)
+                lo = mid + 1;
+            else if (n > lineNumber)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -(lo + 1);
+    }
+    
     void setAbridged(WebLink moreLink) {
         this.moreLink = moreLink;
         abridged = true;
@@ -107,7 +299,7 @@ public class FileMatch {
     }
     
     public String getFullName() {
-        return directory + filename;
+        return fullName;
     }
     
     /**
@@ -123,15 +315,53 @@ public class FileMatch {
      * file hit is abridged, this list may not be complete, otherwise it is.
      * 
      * <p>This method is threadsafe, it may freely be called while the query is still
-     * running. The returned list is a modifiable copy of the file matche's internal
-     * representation of line hits.
+     * running. The returned list is an unmodifiable snapshot of the line hits, sorted
+     * by line number; it does not change when more lines are added to the file match
+     * later on.
      * 
      * @return lines with hits
      */
     public List<LineMatch> getLines() {
-        synchronized (lineMatches) {
-            return new ArrayList<>(lineMatches.values());
-        }
+        return Collections.unmodifiableList(Arrays.asList(lines()));
+    }
+    
+    /**
+     * Returns the number of lines that have been found to match the query so far.
+     * 
+     * @return number of lines with hits
+     */
+    public int lineCount() {
+        LineMatch[] current = lines;
+        return current != null ? current.length : spilled.count;
+    }
+    
+    /**
+     * Returns a line with hits by its index in the list returned by {@link #getLines()}.
+     * Unlike that method, this does not allocate anything if the line matches are held on
+     * the heap. The line matches of a spilled file match are cached only softly, and all of
+     * them are read back from the spill file whenever the cache has been cleared; to go
+     * through many of them, call {@link #getLines()} once and keep the list.
+     * 
+     * @param index index of the line match, counting from zero
+     * @return the line match
+     * @throws IndexOutOfBoundsException if there is no line match at that index
+     */
+    public LineMatch lineAt(int index) {
+        return lines()[index];
+    }
+    
+    /**
+     * Returns the index of a line match in the list returned by {@link #getLines()}, or
+     * -1 if the line match does not belong to this file match. Line matches that have been
+     * paged in from a spill file anew are recognized by their line number and text.
+     * 
+     * @param line the line match
+     * @return index of the line match, counting from zero, or -1
+     */
+    public int indexOfLine(LineMatch line) {
+        LineMatch[] current = lines();
+        int pos = find(current, line.getLineNumber());
+        return pos >= 0 && (current[pos] == line || current[pos].getLine().equals(line.getLine())) ? pos : -1;
     }
     
     /**
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reports a response with an error status. Besides the status, it carries the response
+ * headers and the error page the server sent, so that transports which record the traffic
+ * can keep them.
+ * 
+ * @see Transport#get
+ */
+public class HttpStatusException extends IOException {
+
+    private final URL url;
+    private final int status;
+    private final Map<String, List<String>> headers;
+    private final byte[] body;
+    
+    /**
+     * Creates an exception.
+     * 
+     * @param message the message
+     * @param url the URL the response came from, after redirects have been followed
+     * @param status the HTTP status code
+     * @param headers the response headers
+     * @param body the response body
+     * @param cause the exception the response was first reported with, or <code>null</code>
+     */
+    public HttpStatusException(String message, URL url, int status, Map<String, List<String>> headers, byte[] body, Throwable cause) {
+        super(message, cause);
+        this.url = url;
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+    }
+    
+    /**
+     * Returns the URL the response came from, after redirects have been followed.
+     * 
+     * @return the URL
+     */
+    public URL getURL() {
+        return url;
+    }
+    
+    /**
+     * Returns the HTTP status code.
+     * 
+     * @return the status code
+     */
+    public int getStatus() {
+        return status;
+    }
+    
+    /**
+     * Returns the response headers.
+     * 
+     * @return the header values by header name
+     */
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+    
+    /**
+     * Returns the response body, usually an error page.
+     * 
+     * @return the body, which is empty if the server sent none
+     */
+    public byte[] getBody() {
+        return body;
+    }
+    
+}
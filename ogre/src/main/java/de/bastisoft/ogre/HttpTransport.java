@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends requests with {@link HttpURLConnection}. Responses with an error status are
+ * reported as {@link HttpStatusException}s.
+ */
+public class HttpTransport implements Transport {
+
+    @Override
+    public Response get(URL url, Map<String, String> headers, Proxy proxy) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) (proxy != null ? url.openConnection(proxy) : url.openConnection());
+        for (Map.Entry<String, String> header : headers.entrySet())
+            conn.setRequestProperty(header.getKey(), header.getValue());
+        
+        final InputStream body;
+        try {
+            body = conn.getInputStream();
+        }
+        catch (IOException e) {
+            throw statusException(conn, e);
+        }
+        final int status = conn.getResponseCode();
+        final Map<String, List<String>> responseHeaders = headers(conn);
+        
+        return new Response() {
+            @Override
+            public URL getURL() {
+                return conn.getURL();
+            }
+            
+            @Override
+            public int getStatus() {
+                return status;
+            }
+            
+            @Override
+            public Map<String, List<String>> getHeaders() {
+                return responseHeaders;
+            }
+            
+            @Override
+            public InputStream getBody() {
+                return body;
+            }
+            
+            @Override
+            public void close() throws IOException {
+                body.close();
+            }
+        };
+    }
+    
+    /**
+     * Turns the exception of a failed request into an {@link HttpStatusException} if the
+     * server sent a response with an error status, and returns it unchanged otherwise.
+     */
+    private static IOException statusException(HttpURLConnection conn, IOException e) {
+        int status;
+        try {
+            status = conn.getResponseCode();
+        }
+        catch (IOException e2) {
+            // No response at all
+            return e;
+        }
+        if (status < 400)
+            return e;
+        
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream error = conn.getErrorStream()) {
+            if (error != null) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = error.read(buffer)) >= 0)
+                    body.write(buffer, 0, n);
+            }
+        }
+        catch (IOException e2) {
+            // Keep what has been read of the error page
+        }
+        
+        return new HttpStatusException("Server returned HTTP response code: " + status + " for URL: " + conn.getURL(),
+                conn.getURL(), status, headers(conn), body.toByteArray(), e);
+    }
+    
+    private static Map<String, List<String>> headers(HttpURLConnection conn) {
+        // The status line is reported as a header without a name
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> header : conn.getHeaderFields().entrySet())
+            if (header.getKey() != null)
+                headers.put(header.getKey(), header.getValue());
+        return headers;
+    }
+    
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.util.Arrays;
+
+import de.bastisoft.ogre.event.ActivityListener;
+import de.bastisoft.ogre.event.StageListener;
+
+/**
+ * Reports the time that scrapers spend in the stages of processing responses to stage
+ * listeners, such as {@link de.bastisoft.ogre.metrics.StageMetrics}, and what scrapers are
+ * doing to activity listeners. Listeners are registered for the whole VM. As long as there
+ * are none, stages are not timed at all and activities are not reported.
+ */
+public final class Instrumentation {
+
+    private static final ActivityListener[] NO_ACTIVITY_LISTENERS = new ActivityListener[0];
+    
+    private static volatile StageListener[] listeners = new StageListener[0];
+    private static volatile ActivityListener[] activityListeners = NO_ACTIVITY_LISTENERS;
+    
+    private Instrumentation() {}
+    
+    /**
+     * Registers a listener for the stages of all scrapers in the VM.
+     * 
+     * @param listener the listener
+     */
+    public static synchronized void addStageListener(StageListener listener) {
+        StageListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+    
+    /**
+     * Removes a listener registered with {@link #addStageListener}.
+     * 
+     * @param listener the listener
+     */
+    public static synchronized void removeStageListener(StageListener listener) {
+        StageListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                StageListener[] updated = new StageListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Registers a listener for the activities of all scrapers in the VM.
+     * 
+     * @param listener the listener
+     */
+    public static synchronized void addActivityListener(ActivityListener listener) {
+        ActivityListener[] updated = Arrays.copyOf(activityListeners, activityListeners.length + 1);
+        updated[activityListeners.length] = listener;
+        activityListeners = updated;
+    }
+    
+    /**
+     * Removes a listener registered with {@link #addActivityListener}.
+     * 
+     * @param listener the listener
+     */
+    public static synchronized void removeActivityListener(ActivityListener listener) {
+        ActivityListener[] current = activityListeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                ActivityListener[] updated = new ActivityListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                activityListeners = updated.length > 0 ? updated : NO_ACTIVITY_LISTENERS;
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Starts timing a stage.
+     * 
+     * @return the start time, or 0 if there are no listeners
+     */
+    static long start() {
+        return listeners.length > 0 ? System.nanoTime() : 0;
+    }
+    
+    /**
+     * Finishes timing a stage and reports it, unless it was not timed.
+     * 
+     * @param host the host name of the server
+     * @param stage the stage
+     * @param start the start time returned by {@link #start}
+     */
+    static void end(String host, Stage stage, long start) {
+        if (start != 0)
+            record(host, stage, System.nanoTime() - start);
+    }
+    
+    static void record(String host, Stage stage, long nanos) {
+        for (StageListener l : listeners)
+            l.stageCompleted(host, stage, nanos);
+    }
+    
+    /**
+     * Reports the start of an activity.
+     * 
+     * @param kind the activity
+     * @return the listeners that have been told, which must be passed to {@link #finish}
+     */
+    static ActivityListener[] begin(ActivityListener.Kind kind) {
+        ActivityListener[] current = activityListeners;
+        for (ActivityListener l : current)
+            l.activityStarted(kind);
+        return current;
+    }
+    
+    /**
+     * Reports the end of an activity to the listeners that were told about its start, in
+     * reverse order.
+     */
+    static void finish(ActivityListener[] started, ActivityListener.Kind kind, String url, long bytes, int files, int lines) {
+        for (int i = started.length - 1; i >= 0; i--)
+            started[i].activityFinished(kind, url, bytes, files, lines);
+    }
+    
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.bastisoft.ogre;
+
+import java.io.ByteArrayOutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import de.bastisoft.ogre.LineMatch.Highlight;
+
+/**
+ * Compact binary encoding for blocks of line matches.
+ * 
+ * <p>A block starts with the number of lines. Line numbers are stored as the difference
+ * to the previous line, highlights as the distance from the end of the previous highlight
+ * and their length, all as variable-length integers. Line links almost always point to
+ * the file's cross reference page with the line number as the fragment; those are stored
+ * as a single marker byte.
+ */
+final class LineCodec {
+
+    private static final int LINK_NONE  = 0;
+    private static final int LINK_XREF  = 1;
+    private static final int LINK_OTHER = 2;
+    
+    private LineCodec() {}
+    
+    /**
+     * Encodes a block of line matches.
+     * 
+     * @param lines the line matches, sorted by line number
+     * @param xrefLink the cross reference link of the file, may be <code>null</code>
+     * @param out stream that the block is written to
+     */
+    static void encode(LineMatch[] lines, WebLink xrefLink, ByteArrayOutputStream out) {
+        writeVarint(out, lines.length);
+        
+        int previous = 0;
+        for (LineMatch line : lines) {
+            writeVarint(out, line.getLineNumber() - previous);
+            previous = line.getLineNumber();
+            
+            writeString(out, line.getLine());
+            
+            List<Highlight> highlights = line.getHighlights();
+            writeVarint(out, highlights.size());
+            int end = 0;
+            for (Highlight h : highlights) {
+                writeVarint(out, h.getStart() - end);
+                writeVarint(out, h.getEnd() - h.getStart());
+                end = h.getEnd();
+            }
+            
+            WebLink link = line.getLink();
+            if (link == null)
+                out.write(LINK_NONE);
+            else if (isXrefLink(link, xrefLink, line.getLineNumber()))
+                out.write(LINK_XREF);
+            else {
+                out.write(LINK_OTHER);
+                writeString(out, link.url.toExternalForm());
+                writeString(out, link.referer != null ? link.referer.toExternalForm() : "");
+            }
+        }
+    }
+    
+    /**
+     * Decodes a block of line matches, starting at the current position of the buffer.
+     * The position is advanced to the end of the block.
+     * 
+     * @param in buffer to read from
+     * @param xrefLink the cross reference link of the file, as passed to {@link #encode}
+     * @return the decoded line matches
+     */
+    static LineMatch[] decode(ByteBuffer in, WebLink xrefLink) {
+        LineMatch[] lines = new LineMatch[readVarint(in)];
+        
+        int lineNumber = 0;
+        for (int i = 0; i < lines.length; i++) {
+            lineNumber += readVarint(in);
+            String text = readString(in);
+            
+            Highlight[] highlights = new Highlight[readVarint(in)];
+            int end = 0;
+            for (int j = 0; j < highlights.length; j++) {
+                int start = end + readVarint(in);
+                end = start + readVarint(in);
+                highlights[j] = new Highlight(start, end);
+            }
+            
+            WebLink link;
+            switch (in.get()) {
+                case LINK_NONE:
+                    link = null;
+                    break;
+                
+                case LINK_XREF:
+                    link = new WebLink(url(xrefLink.url.toExternalForm() + "#" + lineNumber), xrefLink.referer);
+                    break;
+                
+                default:
+                    URL url = url(readString(in));
+                    String referer = readString(in);
+                    link = new WebLink(url, referer.length() > 0 ? url(referer) : null);
+            }
+            
+            lines[i] = new LineMatch(lineNumber, text, link, highlights);
+        }
+        
+        return lines;
+    }
+    
+    private static boolean isXrefLink(WebLink link, WebLink xrefLink, int lineNumber) {
+        if (xrefLink == null)
+            return false;
+        
+        if (link.referer == null ? xrefLink.referer != null
+                : xrefLink.referer == null || !link.referer.toExternalForm().equals(xrefLink.referer.toExternalForm()))
+            return false;
+        
+        return link.url.toExternalForm().equals(xrefLink.url.toExternalForm() + "#" + lineNumber);
+    }
+    
+    private static URL url(String s) {
+        try {
+            return new URL(s);
+        }
+        catch (MalformedURLException e) {
+            // We only ever decode what we encoded from valid URLs
+            throw new IllegalStateException("Invalid URL in encoded line block: " + s, e);
+        }
+    }
+    
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+    
+    static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+    
+    static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+    
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[readVarint(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+}
@@ -1,6 +1,7 @@
 package de.bastisoft.ogre;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -45,6 +46,13 @@ public class LineMatch {
         highlights = Collections.unmodifiableList(highlights);
     }
     
+    LineMatch(int lineNumber, String line, WebLink link, Highlight[] highlights) {
+        this.lineNumber = lineNumber;
+        this.line = line;
+        this.link = link;
+        this.highlights = Collections.unmodifiableList(Arrays.asList(highlights));
+    }
+    
     public int getLineNumber() {
         return lineNumber;
     }
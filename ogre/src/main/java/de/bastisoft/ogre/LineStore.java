@@ -0,0 +1,44 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.bastisoft.ogre;
+
+/**
+ * Keeps the line matches of file matches outside of the Java heap. A block of line
+ * matches is written once and identified by an address; amending a file match writes
+ * a new block rather than changing the old one.
+ */
+interface LineStore {
+    
+    /**
+     * Stores a block of line matches.
+     * 
+     * @param lines the line matches, sorted by line number
+     * @param xrefLink the cross reference link of the file the lines belong to
+     * @return the address under which the block can be read back
+     */
+    long write(LineMatch[] lines, WebLink xrefLink);
+    
+    /**
+     * Reads back a block of line matches.
+     * 
+     * @param address the address returned when the block was written
+     * @param xrefLink the cross reference link of the file the lines belong to
+     * @return new line match objects equal to the ones that were written
+     */
+    LineMatch[] read(long address, WebLink xrefLink);
+    
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.bastisoft.ogre;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers parsed result pages by URL together with a fingerprint of the page content,
+ * so that a page that comes back unchanged does not have to be repaired and parsed again.
+ * Pages still have to be fetched to find out whether they have changed.
+ * 
+ * <p>The fingerprint covers only the part of the page between the start of the results
+ * and the footer, if both can be found, so that server-generated decorations outside the
+ * results do not defeat the cache.
+ * 
+ * <p>A page cache can be shared by several scrapers and is safe for concurrent use. It is
+ * meant for repeating the same searches (see {@link SearchWatcher}); it grows with the
+ * number of distinct pages fetched and is never cleaned up by itself.
+ */
+public class PageCache {
+
+    private static final byte[] RESULTS_START = "<div id=\"results\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FOOTER_START = "<div id=\"footer\"".getBytes(StandardCharsets.US_ASCII);
+    
+    private static class Entry {
+        
+        final byte[] fingerprint;
+        final Object parsed;
+        
+        Entry(byte[] fingerprint, Object parsed) {
+            this.fingerprint = fingerprint;
+            this.parsed = parsed;
+        }
+        
+    }
+    
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, WebLink> redirects = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    
+    /**
+     * Returns the number of pages that were found unchanged and not parsed again.
+     * 
+     * @return number of cache hits
+     */
+    public int hitCount() {
+        return hits.get();
+    }
+    
+    /**
+     * Returns the number of pages that had to be parsed because they were new or changed.
+     * 
+     * @return number of cache misses
+     */
+    public int missCount() {
+        return misses.get();
+    }
+    
+    /**
+     * Discards all cached pages.
+     */
+    public void clear() {
+        entries.clear();
+        redirects.clear();
+    }
+    
+    /**
+     * Returns a copy of a cached result page if the page content has not changed. The
+     * file matches are copied because the scraper merges them into its search result.
+     */
+    ResultPage resultPage(String url, byte[] fingerprint) {
+        ResultPage cached = (ResultPage) lookup(url, fingerprint);
+        if (cached == null)
+            return null;
+        
+        ResultPage page = new ResultPage();
+        page.url = cached.url;
+        page.pageLinks = cached.pageLinks;
+        page.fileMatches = new ArrayList<>(cached.fileMatches.size());
+        for (FileMatch match : cached.fileMatches)
+            page.fileMatches.add(match.copy());
+        return page;
+    }
+    
+    void storeResultPage(String url, byte[] fingerprint, ResultPage page) {
+        // Store a copy, the original is about to be merged into a search result
+        ResultPage stored = new ResultPage();
+        stored.url = page.url;
+        stored.pageLinks = page.pageLinks;
+        stored.fileMatches = new ArrayList<>(page.fileMatches.size());
+        for (FileMatch match : page.fileMatches)
+            stored.fileMatches.add(match.copy());
+        entries.put(url, new Entry(fingerprint, stored));
+    }
+    
+    /**
+     * Returns the cached line matches of a "more" page if the page content has not changed.
+     * Line matches are immutable, so they are returned as they are.
+     */
+    @SuppressWarnings("unchecked")
+    List<LineMatch> morePage(String url, byte[] fingerprint) {
+        return (List<LineMatch>) lookup(url, fingerprint);
+    }
+    
+    void storeMorePage(String url, byte[] fingerprint, List<LineMatch> lines) {
+        entries.put(url, new Entry(fingerprint, lines));
+    }
+    
+    WebLink redirect(String url) {
+        return redirects.get(url);
+    }
+    
+    void storeRedirect(String url, WebLink target) {
+        redirects.put(url, target);
+    }
+    
+    private Object lookup(String url, byte[] fingerprint) {
+        Entry entry = entries.get(url);
+        if (entry != null && Arrays.equals(entry.fingerprint, fingerprint)) {
+            hits.incrementAndGet();
+            return entry.parsed;
+        }
+        
+        misses.incrementAndGet();
+        return null;
+    }
+    
+    /**
+     * Computes the fingerprint of a page.
+     * 
+     * @param body the raw page content
+     * @return the fingerprint
+     */
+    static byte[] fingerprint(byte[] body) {
+        int start = indexOf(body, RESULTS_START, 0);
+        int end = start >= 0 ? indexOf(body, FOOTER_START, start) : -1;
+        if (start < 0 || end < 0) {
+            start = 0;
+            end = body.length;
+        }
+        
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(body, start, end - start);
+            return digest.digest();
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+            for (int i = from; i <= data.length - pattern.length; i++) {
+                for (int j = 0; j < pattern.length; j++)
+                    if (data[i + j] != pattern[j])
+                        continue outer;
+                return i;
+            }
+        return -1;
+    }
+    
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+/**
+ * How much of the search results a scraper extracts from the result pages. Everything
+ * but {@link #FULL} leaves out line matches, and the scraper never fetches additional line
+ * matches for them, so a search costs one request per result page.
+ * @see Scraper#setProjection
+ */
+public enum Projection {
+
+    /**
+     * Extracts files and line matches, and fetches additional line matches as configured.
+     */
+    FULL,
+    
+    /**
+     * Extracts files with the first line match shown on the result page. Whether there are
+     * more line matches is not determined; files are never abridged.
+     */
+    FILES_WITH_FIRST_LINE,
+    
+    /**
+     * Extracts files without line matches. Files are never abridged.
+     */
+    FILES_ONLY,
+    
+    /**
+     * Extracts only as much as needed to count the files and directories. Files have no
+     * line matches and no links, and they are never abridged.
+     */
+    COUNTS_ONLY
+    
+}
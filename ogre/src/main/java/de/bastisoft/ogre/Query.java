@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.util.Arrays;
+
+/**
+ * The fields of an OpenGrok search. Fields that are <code>null</code>, empty or consist
+ * only of whitespace are not used; they are all stored as <code>null</code>, and other
+ * fields are stored without leading and trailing whitespace, so queries that lead to the
+ * same search request are equal.
+ */
+public final class Query {
+
+    private final String query, defs, refs, path, hist, project;
+    
+    /**
+     * Creates a query. The arguments are the same as for {@link Scraper#search}.
+     * 
+     * @param query search terms for the OpenGrok "Full Search" field
+     * @param defs search terms for the OpenGrok "Definition" field
+     * @param refs search terms for the OpenGrok "Symbol" field
+     * @param path search terms for the OpenGrok "File Path" field
+     * @param hist search terms for the OpenGrok "History" field
+     * @param project the project(s) to search for multi-project OpenGrok servers
+     */
+    public Query(String query, String defs, String refs, String path, String hist, String project) {
+        this.query = normalize(query);
+        this.defs = normalize(defs);
+        this.refs = normalize(refs);
+        this.path = normalize(path);
+        this.hist = normalize(hist);
+        this.project = normalize(project);
+    }
+    
+    private static String normalize(String value) {
+        if (value == null)
+            return null;
+        value = value.trim();
+        return value.length() > 0 ? value : null;
+    }
+    
+    public String getQuery() {
+        return query;
+    }
+    
+    public String getDefs() {
+        return defs;
+    }
+    
+    public String getRefs() {
+        return refs;
+    }
+    
+    public String getPath() {
+        return path;
+    }
+    
+    public String getHist() {
+        return hist;
+    }
+    
+    public String getProject() {
+        return project;
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Query))
+            return false;
+        Query other = (Query) obj;
+        return Arrays.equals(fields(), other.fields());
+    }
+    
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(fields());
+    }
+    
+    private String[] fields() {
+        return new String[] { query, defs, refs, path, hist, project };
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        String[] fields = fields();
+        String[] names = { "q", "defs", "refs", "path", "hist", "project" };
+        for (int i = 0; i < fields.length; i++)
+            if (fields[i] != null)
+                sb.append(sb.length() > 0 ? " " : "").append(names[i]).append('=').append(fields[i]);
+        return sb.toString();
+    }
+    
+}
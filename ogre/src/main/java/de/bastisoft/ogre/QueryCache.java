@@ -0,0 +1,279 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import de.bastisoft.ogre.LineMatch.Highlight;
+
+/**
+ * Places searches through a scraper, but answers them from earlier results when that is
+ * possible. Only complete results are kept: those that did not hit the page limit, were
+ * not aborted or stopped early, and have no abridged files.
+ * 
+ * <p>A search is answered from the cache only if the answer is certain to be the one the
+ * server would give:
+ * 
+ * <ul>
+ * <li>The same search is in the cache.
+ * <li>The full search field combines plain words with <code>AND</code>, and for each of
+ *     the words, the search with just that word and all other fields the same is in the
+ *     cache. The files are those found by all of these searches, with the line matches of
+ *     all of them, since the server lists the lines in which any of the words occur.
+ * </ul>
+ * 
+ * <p>Everything else goes to the server, including phrases and narrower paths: the server
+ * tokenizes text and paths in ways that line matches and file names do not reveal. So do
+ * all searches if the scraper does not use the full {@link Projection}.
+ * 
+ * <p>Answers from the cache are subject to the scraper's page limit and stop conditions
+ * like answers from the server. A search that would have needed more result pages than
+ * the page limit allows goes to the server. Results answered from the cache are new
+ * search results that are not reported to the scraper's listeners and receivers; they
+ * count no fetched pages unless they are the same search. The cache holds the line
+ * matches of its results in memory, even if the scraper uses a spill file.
+ */
+public class QueryCache {
+
+    private static final Pattern PLAIN_WORD = Pattern.compile("[\\p{L}\\p{N}_]+");
+    private static final List<String> OPERATORS = Arrays.asList("AND", "OR", "NOT", "TO");
+    
+    private final Scraper scraper;
+    private final Map<Query, SearchResult> results;
+    private int hits, misses;
+    
+    /**
+     * Creates a cache that keeps the results of the last 16 complete searches.
+     * 
+     * @param scraper the scraper to place searches with
+     */
+    public QueryCache(Scraper scraper) {
+        this(scraper, 16);
+    }
+    
+    /**
+     * Creates a cache.
+     * 
+     * @param scraper the scraper to place searches with
+     * @param capacity the number of results to keep; the least recently used ones are
+     *          discarded
+     */
+    public QueryCache(Scraper scraper, final int capacity) {
+        this.scraper = scraper;
+        results = new LinkedHashMap<Query, SearchResult>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Query, SearchResult> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+    
+    /**
+     * Answers a search from the cache if possible, and places it with the server
+     * otherwise.
+     * 
+     * @param query the search
+     * @return the search result
+     * @throws ScraperException if the search has to be placed with the server and fails
+     */
+    public SearchResult search(Query query) throws ScraperException {
+        // Results without line matches can neither be combined nor stand in for full ones
+        if (scraper.projection() != Projection.FULL)
+            return scraper.search(query);
+        
+        SearchResult local = searchLocally(query);
+        if (local != null)
+            return local;
+        
+        SearchResult result = scraper.search(query);
+        if (complete(result)) {
+            // Keep a copy; the caller may close the result and with it the spill file
+            SearchResult copy = result.copy();
+            synchronized (this) {
+                results.put(query, copy);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Answers a search from the cache, without going to the server.
+     * 
+     * @param query the search
+     * @return the search result, or <code>null</code> if the search cannot be answered
+     *          from the cache
+     */
+    public SearchResult searchLocally(Query query) {
+        SearchResult answer = null;
+        
+        SearchResult exact;
+        synchronized (this) {
+            exact = results.get(query);
+        }
+        if (exact != null) {
+            if (exact.fetchedPageCount() <= scraper.pageLimit())
+                answer = exact.copy();
+        }
+        else {
+            List<SearchResult> conjuncts = conjuncts(query);
+            if (conjuncts != null)
+                answer = intersect(conjuncts);
+        }
+        
+        synchronized (this) {
+            if (answer != null)
+                hits++;
+            else
+                misses++;
+        }
+        return answer != null ? applyStopConditions(answer) : null;
+    }
+    
+    public synchronized int hitCount() {
+        return hits;
+    }
+    
+    public synchronized int missCount() {
+        return misses;
+    }
+    
+    public synchronized void clear() {
+        results.clear();
+    }
+    
+    private static boolean complete(SearchResult result) {
+        return !result.pageLimitTriggered() && !result.aborted() && !result.stopped() && result.abridgedFileCount() == 0;
+    }
+    
+    /**
+     * Returns the cached results of the searches for the single words of a search that
+     * combines plain words with <code>AND</code>, or <code>null</code> if the search is not
+     * of that kind, if a result is not cached, or if the answer could need more result pages
+     * than the page limit allows.
+     */
+    private List<SearchResult> conjuncts(Query query) {
+        if (query.getQuery() == null)
+            return null;
+        
+        String[] tokens = query.getQuery().split("\\s+");
+        if (tokens.length < 3 || tokens.length % 2 == 0)
+            return null;
+        for (int i = 0; i < tokens.length; i++)
+            if (i % 2 == 0 ? !isPlainWord(tokens[i]) : !tokens[i].equals("AND"))
+                return null;
+        
+        List<SearchResult> conjuncts = new ArrayList<>();
+        int fewestPages = Integer.MAX_VALUE;
+        synchronized (this) {
+            for (int i = 0; i < tokens.length; i += 2) {
+                SearchResult result = results.get(new Query(tokens[i], query.getDefs(), query.getRefs(),
+                        query.getPath(), query.getHist(), query.getProject()));
+                if (result == null)
+                    return null;
+                conjuncts.add(result);
+                fewestPages = Math.min(fewestPages, result.fetchedPageCount());
+            }
+        }
+        
+        // The answer has no more files, and therefore no more pages, than any of the results
+        return fewestPages <= scraper.pageLimit() ? conjuncts : null;
+    }
+    
+    private static boolean isPlainWord(String s) {
+        return PLAIN_WORD.matcher(s).matches() && !OPERATORS.contains(s);
+    }
+    
+    /**
+     * Combines results into one with the files found in all of them, in the order of the
+     * first, and all of their line matches. Highlights of the same line are combined.
+     */
+    private static SearchResult intersect(List<SearchResult> conjuncts) {
+        List<Map<String, FileMatch>> others = new ArrayList<>();
+        for (SearchResult result : conjuncts.subList(1, conjuncts.size())) {
+            Map<String, FileMatch> files = new HashMap<>();
+            for (FileMatch match : result.files())
+                files.put(match.getFullName(), match);
+            others.add(files);
+        }
+        
+        SearchResult answer = new SearchResult(null, null);
+        outer:
+            for (FileMatch first : conjuncts.get(0).files()) {
+                Map<Integer, LineMatch> lines = new TreeMap<>();
+                addLines(lines, first.getLines());
+                for (Map<String, FileMatch> files : others) {
+                    FileMatch match = files.get(first.getFullName());
+                    if (match == null)
+                        continue outer;
+                    addLines(lines, match.getLines());
+                }
+                
+                FileMatch combined = new FileMatch(first.getDirectory(), first.getFilename(), first.getXrefLink());
+                combined.addLines(lines.values());
+                answer.mergeFileMatch(combined);
+            }
+        return answer;
+    }
+    
+    private static void addLines(Map<Integer, LineMatch> lines, Collection<LineMatch> more) {
+        for (LineMatch line : more) {
+            LineMatch known = lines.get(line.getLineNumber());
+            lines.put(line.getLineNumber(), known == null ? line : combineHighlights(known, line));
+        }
+    }
+    
+    private static LineMatch combineHighlights(LineMatch a, LineMatch b) {
+        Map<Integer, Highlight> highlights = new TreeMap<>();
+        for (Highlight h : a.getHighlights())
+            highlights.put(h.getStart(), h);
+        for (Highlight h : b.getHighlights())
+            if (!highlights.containsKey(h.getStart()))
+                highlights.put(h.getStart(), h);
+        
+        if (highlights.size() == a.getHighlights().size())
+            return a;
+        return new LineMatch(a.getLineNumber(), a.getLine(), a.getLink(), highlights.values().toArray(new Highlight[0]));
+    }
+    
+    /**
+     * Checks the scraper's stop conditions after every file of an answer, as the scraper
+     * does while it merges a result page, and leaves out the files after the first one
+     * that satisfies a condition.
+     */
+    private SearchResult applyStopConditions(SearchResult answer) {
+        SearchResult stopped = new SearchResult(answer.startLink(), null);
+        for (FileMatch match : answer.files()) {
+            FileMatch merged = stopped.mergeFileMatch(match);
+            if (scraper.stopConditionSatisfied(stopped, merged)) {
+                stopped.setStopped(true);
+                stopped.restorePageCounts(answer.fetchedPageCount(), 0);
+                return stopped;
+            }
+        }
+        return answer;
+    }
+    
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.bastisoft.ogre.SymbolLookup.Field;
+import de.bastisoft.ogre.event.CrawlListener;
+
+/**
+ * Walks a graph of symbols breadth-first, searching for every symbol and following the
+ * line matches to further symbols, e.g. from a function to the functions that call it.
+ * Where a line match leads is decided by a {@link SymbolExtractor}.
+ * 
+ * <p>All symbols at one depth are searched concurrently, and every symbol is searched
+ * only once. The crawl ends when no new symbols are found, when the maximum depth has been
+ * reached, or when the budget of searches is used up. Edges are passed to the listeners as
+ * they are found, including edges to symbols that will not be searched because they have
+ * been searched before or because of the limits.
+ * 
+ * <p>Every thread searches with a scraper that has the configuration of the one given to
+ * the constructor; its listeners, receivers and stop conditions are not used.
+ */
+public class ReferenceCrawler {
+
+    private final Scraper scraper;
+    private final SymbolExtractor extractor;
+    private final Collection<CrawlListener> listeners;
+    private final List<Scraper> running;
+    
+    private Field field;
+    private int threads;
+    private int maxDepth;
+    private int maxSearches;
+    private volatile boolean aborted;
+    
+    /**
+     * Creates a crawler that searches the "Symbol" field with four threads, up to a depth
+     * of 3 and with a budget of 1000 searches.
+     * 
+     * @param scraper the scraper whose configuration is used for the searches
+     * @param extractor decides which symbols the line matches lead to
+     */
+    public ReferenceCrawler(Scraper scraper, SymbolExtractor extractor) {
+        this.scraper = scraper;
+        this.extractor = extractor;
+        listeners = new ArrayList<>();
+        running = new ArrayList<>();
+        field = Field.REFS;
+        threads = 4;
+        maxDepth = 3;
+        maxSearches = 1000;
+    }
+    
+    public void addCrawlListener(CrawlListener listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Sets the search field that symbols are looked up in.
+     * 
+     * @param field the search field
+     */
+    public void setField(Field field) {
+        this.field = field;
+    }
+    
+    /**
+     * Sets the number of searches that run at the same time.
+     * 
+     * @param threads number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+    
+    /**
+     * Sets the maximum depth of symbols that are searched. The symbols the crawl starts
+     * from have depth 0, so a maximum depth of 0 searches only these.
+     * 
+     * @param maxDepth maximum depth
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+    
+    /**
+     * Sets the maximum number of searches for the whole crawl.
+     * 
+     * @param maxSearches maximum number of searches
+     */
+    public void setMaxSearches(int maxSearches) {
+        this.maxSearches = maxSearches;
+    }
+    
+    /**
+     * Stops the crawl. Searches that are running are aborted.
+     */
+    public void abort() {
+        aborted = true;
+        synchronized (running) {
+            for (Scraper s : running)
+                s.abort();
+        }
+    }
+    
+    /**
+     * Crawls the graph from a set of symbols. The method returns when the crawl is over.
+     * 
+     * @param roots the symbols to start from
+     * @return the symbols that have been searched
+     */
+    public Set<String> crawl(Collection<String> roots) {
+        aborted = false;
+        Set<String> visited = new LinkedHashSet<>();
+        int budget = maxSearches;
+        final ThreadLocal<Scraper> scrapers = new ThreadLocal<>();
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Set<String> frontier = new LinkedHashSet<>(roots);
+            for (int depth = 0; depth <= maxDepth && !frontier.isEmpty() && !aborted; depth++) {
+                final int currentDepth = depth;
+                List<Callable<Collection<String>>> tasks = new ArrayList<>();
+                
+                for (final String symbol : frontier) {
+                    if (budget <= 0)
+                        break;
+                    if (!visited.add(symbol))
+                        continue;
+                    budget--;
+                    
+                    tasks.add(new Callable<Collection<String>>() {
+                        @Override
+                        public Collection<String> call() {
+                            if (aborted)
+                                return Collections.emptyList();
+                            
+                            Scraper s = scrapers.get();
+                            if (s == null) {
+                                scrapers.set(s = scraper.copy());
+                                synchronized (running) {
+                                    running.add(s);
+                                }
+                            }
+                            return expand(s, symbol, currentDepth);
+                        }
+                    });
+                }
+                
+                Set<String> next = new LinkedHashSet<>();
+                for (Future<Collection<String>> future : executor.invokeAll(tasks)) {
+                    for (String symbol : future.get())
+                        if (!visited.contains(symbol))
+                            next.add(symbol);
+                }
+                
+                frontier = next;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            // expand() reports search errors itself, anything else is a bug
+            throw new IllegalStateException(e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+            synchronized (running) {
+                running.clear();
+            }
+        }
+        
+        return visited;
+    }
+    
+    /**
+     * Searches for a symbol, reports the edges and returns the symbols they lead to.
+     */
+    private Collection<String> expand(Scraper s, String symbol, int depth) {
+        SearchResult result;
+        try {
+            result = s.search(new Query(
+                    field == Field.FULL ? symbol : null,
+                    field == Field.DEFS ? symbol : null,
+                    field == Field.REFS ? symbol : null,
+                    null, null, null));
+        }
+        catch (ScraperException e) {
+            synchronized (listeners) {
+                for (CrawlListener l : listeners)
+                    l.searchFailed(symbol, e);
+            }
+            return Collections.emptyList();
+        }
+        
+        Set<String> found = new LinkedHashSet<>();
+        try {
+            for (FileMatch file : result.files()) {
+                for (LineMatch line : file.getLines()) {
+                    for (String next : extractor.symbols(symbol, file, line)) {
+                        found.add(next);
+                        CrawlEdge edge = new CrawlEdge(symbol, next, file, line, depth);
+                        synchronized (listeners) {
+                            for (CrawlListener l : listeners)
+                                l.edgeFound(edge);
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            try {
+                result.close();
+            }
+            catch (IOException e) {
+                // Only a temporary file is left behind, which is removed on exit anyway
+            }
+        }
+        return found;
+    }
+    
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Pattern;
+
+import de.bastisoft.ogre.LineMatch.Highlight;
+
+/**
+ * Narrows down a search result locally, without placing another search with the server.
+ * A refinement consists of any number of filters, all of which must be passed:
+ * 
+ * <ul>
+ * <li>Path filters select files by their full name, using glob patterns.
+ * <li>Line filters select line matches by their text, using regular expressions.
+ * <li>Highlight filters select line matches by the parts of the line that the server has
+ *     highlighted as hits, using regular expressions that must match a highlighted part
+ *     in its entirety.
+ * </ul>
+ * 
+ * <p>A file is part of the refined result if it passes the path filters and, if there are
+ * any line or highlight filters, if at least one of its line matches passes them. Only the
+ * line matches that pass are kept. Abridged files stay abridged; line matches that have not
+ * been fetched are not considered.
+ * 
+ * <p>The files are filtered in parallel. A refinement can be applied any number of times,
+ * also concurrently, but it must not be modified while it is being applied.
+ */
+public class Refinement {
+
+    private static final int FILES_PER_TASK = 64;
+    
+    private static ForkJoinPool pool;
+    
+    private List<Pattern> pathPatterns;
+    private List<Pattern> linePatterns;
+    private List<Pattern> highlightPatterns;
+    
+    public Refinement() {
+        pathPatterns = new ArrayList<>();
+        linePatterns = new ArrayList<>();
+        highlightPatterns = new ArrayList<>();
+    }
+    
+    /**
+     * Adds a path filter. In the glob pattern, <code>*</code> matches any number of
+     * characters except <code>/</code>, <code>**</code> matches any number of characters
+     * including <code>/</code>, and <code>?</code> matches a single character except
+     * <code>/</code>. A pattern without a <code>/</code> is matched against the file name
+     * only, otherwise it is matched against the full path.
+     * 
+     * @param glob the glob pattern
+     * @return this refinement
+     */
+    public Refinement path(String glob) {
+        pathPatterns.add(globToPattern(glob));
+        return this;
+    }
+    
+    /**
+     * Adds a line filter. Line matches pass if the regular expression is found anywhere
+     * in their text.
+     * 
+     * @param regex the regular expression
+     * @return this refinement
+     */
+    public Refinement lineText(Pattern regex) {
+        linePatterns.add(regex);
+        return this;
+    }
+    
+    /**
+     * Adds a highlight filter. Line matches pass if one of their highlighted parts is
+     * matched by the regular expression in its entirety.
+     * 
+     * @param regex the regular expression
+     * @return this refinement
+     */
+    public Refinement highlighted(Pattern regex) {
+        highlightPatterns.add(regex);
+        return this;
+    }
+    
+    /**
+     * Applies the refinement to a search result. The given result is not modified. The
+     * refined result contains new file matches, in the same order as the original; they
+     * share their line match objects with the original.
+     * 
+     * @param result the search result to refine
+     * @return the refined search result
+     */
+    public SearchResult apply(SearchResult result) {
+        final FileMatch[] files = result.files().toArray(new FileMatch[0]);
+        final FileMatch[] refined = new FileMatch[files.length];
+        
+        if (files.length <= FILES_PER_TASK)
+            refine(files, refined, 0, files.length);
+        else
+            pool().invoke(new RefineTask(files, refined, 0, files.length));
+        
+        SearchResult refinedResult = new SearchResult(result.startLink(), null);
+        for (FileMatch match : refined)
+            if (match != null)
+                refinedResult.mergeFileMatch(match);
+        
+        refinedResult.setPageLimitTriggered(result.pageLimitTriggered());
+        refinedResult.setAborted(result.aborted());
+        refinedResult.setStopped(result.stopped());
+        return refinedResult;
+    }
+    
+    private class RefineTask extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final FileMatch[] files, refined;
+        private final int from, to;
+        
+        RefineTask(FileMatch[] files, FileMatch[] refined, int from, int to) {
+            this.files = files;
+            this.refined = refined;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from <= FILES_PER_TASK)
+                refine(files, refined, from, to);
+            else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RefineTask(files, refined, from, middle),
+                          new RefineTask(files, refined, middle, to));
+            }
+        }
+        
+    }
+    
+    private void refine(FileMatch[] files, FileMatch[] refined, int from, int to) {
+        for (int i = from; i < to; i++)
+            refined[i] = refine(files[i]);
+    }
+    
+    private FileMatch refine(FileMatch match) {
+        for (Pattern p : pathPatterns)
+            if (!p.matcher(match.getFullName()).find())
+                return null;
+        
+        Collection<LineMatch> lines = match.getLines();
+        if (!linePatterns.isEmpty() || !highlightPatterns.isEmpty()) {
+            List<LineMatch> passed = new ArrayList<>();
+            for (LineMatch line : lines)
+                if (passes(line))
+                    passed.add(line);
+            if (passed.isEmpty())
+                return null;
+            lines = passed;
+        }
+        
+        FileMatch refined = new FileMatch(match.getDirectory(), match.getFilename(), match.getXrefLink());
+        refined.addLines(lines);
+        if (match.abridged())
+            refined.setAbridged(match.getMoreLink());
+        return refined;
+    }
+    
+    private boolean passes(LineMatch line) {
+        for (Pattern p : linePatterns)
+            if (!p.matcher(line.getLine()).find())
+                return false;
+        
+        for (Pattern p : highlightPatterns)
+            if (!highlightMatches(line, p))
+                return false;
+        
+        return true;
+    }
+    
+    private static boolean highlightMatches(LineMatch line, Pattern p) {
+        String text = line.getLine();
+        for (Highlight h : line.getHighlights())
+            if (p.matcher(text.subSequence(h.getStart(), h.getEnd())).matches())
+                return true;
+        return false;
+    }
+    
+    static Pattern globToPattern(String glob) {
+        StringBuilder regex = new StringBuilder("^");
+        if (glob.indexOf('/') < 0)
+            regex.append("(?:.*/)?");
+        
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            }
+            else if (c == '*')
+                regex.append("[^/]*");
+            else if (c == '?')
+                regex.append("[^/]");
+            else {
+                if ("\\.[]{}()<>*+-=!?^$|".indexOf(c) >= 0)
+                    regex.append('\\');
+                regex.append(c);
+            }
+        }
+        
+        return Pattern.compile(regex.append('$').toString());
+    }
+    
+    private static synchronized ForkJoinPool pool() {
+        if (pool == null)
+            pool = new ForkJoinPool();
+        return pool;
+    }
+    
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The differences between two consecutive runs of a watched search. Files are identified
+ * by their full path, and line matches by their line number and text; a line whose text
+ * has changed is reported as removed and added.
+ * 
+ * <p>Added and changed files are reported with the file match objects of the newer run,
+ * removed files with those of the older run.
+ * @see SearchWatcher
+ */
+public class ResultDelta {
+
+    /**
+     * The line matches that have been added to or removed from a file that matched in
+     * both runs.
+     */
+    public static class FileChange {
+        
+        private FileMatch file;
+        private List<LineMatch> addedLines;
+        private List<LineMatch> removedLines;
+        
+        FileChange(FileMatch file, List<LineMatch> addedLines, List<LineMatch> removedLines) {
+            this.file = file;
+            this.addedLines = Collections.unmodifiableList(addedLines);
+            this.removedLines = Collections.unmodifiableList(removedLines);
+        }
+        
+        public FileMatch getFile() {
+            return file;
+        }
+        
+        public List<LineMatch> getAddedLines() {
+            return addedLines;
+        }
+        
+        public List<LineMatch> getRemovedLines() {
+            return removedLines;
+        }
+        
+    }
+    
+    private List<FileMatch> addedFiles;
+    private List<FileMatch> removedFiles;
+    private List<FileChange> changedFiles;
+    
+    ResultDelta(List<FileMatch> addedFiles, List<FileMatch> removedFiles, List<FileChange> changedFiles) {
+        this.addedFiles = Collections.unmodifiableList(addedFiles);
+        this.removedFiles = Collections.unmodifiableList(removedFiles);
+        this.changedFiles = Collections.unmodifiableList(changedFiles);
+    }
+    
+    /**
+     * Returns the files that match now, but did not match before.
+     * 
+     * @return the new file matches, with all their line matches
+     */
+    public List<FileMatch> getAddedFiles() {
+        return addedFiles;
+    }
+    
+    /**
+     * Returns the files that matched before, but do not match any more. If the newer run
+     * hit the page limit, was aborted or was stopped early, it cannot tell which files have
+     * gone away, and no files are reported as removed.
+     * 
+     * @return the file matches that have gone away
+     */
+    public List<FileMatch> getRemovedFiles() {
+        return removedFiles;
+    }
+    
+    /**
+     * Returns the files that match in both runs, but with different line matches.
+     * 
+     * @return the changes to existing file matches
+     */
+    public List<FileChange> getChangedFiles() {
+        return changedFiles;
+    }
+    
+    public boolean isEmpty() {
+        return addedFiles.isEmpty() && removedFiles.isEmpty() && changedFiles.isEmpty();
+    }
+    
+}
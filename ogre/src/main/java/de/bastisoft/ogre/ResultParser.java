@@ -64,7 +64,15 @@ public class ResultParser {
         docURL = response.url;
     }
     
-    ResultPage parsePage() throws OgreParseException {
+    /**
+     * Parses a result page, extracting as much as required by a projection. For anything but
+     * the full projection, file rows are walked directly instead of through XPath, and line
+     * matches other than the first are skipped without looking at them.
+     * 
+     * @param projection what to extract
+     * @return the result page
+     */
+    ResultPage parsePage(Projection projection) throws OgreParseException {
         Element resultTable = elementForPath("/html/body/div[@id='page']/div[@id='results']/table", doc);
         
         // On "no results" pages, the table isn't there
@@ -84,7 +92,7 @@ public class ResultParser {
             else {
                 if (dir == null)
                     throw new OgreParseException("File row without preceding dir row in result list");
-                matches.add(parseFileRow(dir, tr));
+                matches.add(projection == Projection.FULL ? parseFileRow(dir, tr) : parseFileRow(dir, tr, projection));
             }
         }
         
@@ -151,6 +159,51 @@ public class ResultParser {
         return hit;
     }
     
+    private FileMatch parseFileRow(String dir, Element rowElem, Projection projection) throws OgreParseException {
+        Element fileCell = childElement(rowElem, "td", "f");
+        Element fileLink = fileCell != null ? childElement(fileCell, "a", null) : null;
+        if (fileLink == null)
+            throw new OgreParseException("Table column contains no link to file");
+        
+        if (projection == Projection.COUNTS_ONLY)
+            return new FileMatch(dir, fileLink.getTextContent(), null);
+        
+        FileMatch hit;
+        try {
+            URL href = new URL(docURL, fileLink.getAttribute("href"));
+            hit = new FileMatch(dir, fileLink.getTextContent(), new WebLink(href, docURL));
+        }
+        catch (MalformedURLException e) {
+            hit = new FileMatch(dir, fileLink.getTextContent(), null);
+        }
+        
+        if (projection == Projection.FILES_WITH_FIRST_LINE) {
+            for (Node td = rowElem.getFirstChild(); td != null; td = td.getNextSibling()) {
+                Element lines = isElement(td, "td", null) ? childElement((Element) td, "tt", "con") : null;
+                Element lineLink = lines != null ? childElement(lines, "a", "s") : null;
+                if (lineLink != null) {
+                    hit.addLine(parseLine(lineLink));
+                    break;
+                }
+            }
+        }
+        
+        return hit;
+    }
+    
+    private static Element childElement(Element parent, String tagName, String className) {
+        for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling())
+            if (isElement(n, tagName, className))
+                return (Element) n;
+        return null;
+    }
+    
+    private static boolean isElement(Node n, String tagName, String className) {
+        return n.getNodeType() == Node.ELEMENT_NODE
+                && tagName.equals(((Element) n).getTagName())
+                && (className == null || className.equals(((Element) n).getAttribute("class")));
+    }
+    
     /**
      * Parses a document containing the full list of line matches for a file.
      * The file match object is amended to record all line matches.
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.bastisoft.ogre;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads search results saved by {@link ResultWriter}.
+ * 
+ * <p>The file is memory-mapped, and only the directory and file names are read when a
+ * result is loaded. The line matches of a file are decoded from the mapped file when they
+ * are first requested, the same way line matches of a search result with a spill file are
+ * paged in. Files larger than 2 GB cannot be loaded.
+ */
+public class ResultReader {
+
+    /**
+     * Serves line matches from the mapped file. Saved results are not meant to be amended,
+     * so this store cannot be written to.
+     */
+    private static class MappedLines implements LineStore {
+        
+        private final ByteBuffer buffer;
+        
+        MappedLines(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        
+        @Override
+        public long write(LineMatch[] lines, WebLink xrefLink) {
+            throw new UnsupportedOperationException("Saved search results cannot be modified");
+        }
+        
+        @Override
+        public LineMatch[] read(long address, WebLink xrefLink) {
+            ByteBuffer in = buffer.duplicate();
+            in.position((int) address);
+            return LineCodec.decode(in, xrefLink);
+        }
+        
+    }
+    
+    private ResultReader() {}
+    
+    /**
+     * Loads a saved search result.
+     * 
+     * @param file the file written by a {@link ResultWriter}
+     * @return the search result
+     * @throws IOException if the file cannot be read or is not a valid result file
+     */
+    public static SearchResult read(File file) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Result file too large: " + file);
+            
+            // The mapping remains valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        
+        try {
+            return read(buffer);
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e) {
+            // Reading or skipping past the end of the buffer
+            throw new IOException("Result file is truncated: " + file, e);
+        }
+    }
+    
+    private static SearchResult read(ByteBuffer in) throws IOException {
+        if (in.remaining() < 4 || in.getInt() != ResultWriter.MAGIC)
+            throw new IOException("Not a saved search result");
+        
+        int version = LineCodec.readVarint(in);
+        if (version != ResultWriter.VERSION)
+            throw new IOException("Unsupported result file version " + version);
+        
+        MappedLines store = new MappedLines(in);
+        
+        List<FileMatch> files = new ArrayList<>();
+        List<String> dirTable = new ArrayList<>();
+        List<String> nameTable = new ArrayList<>();
+        List<String> urlTable = new ArrayList<>();
+        
+        int trailerFlags = 0;
+        WebLink startLink = null;
+        int fetchedPages = 0;
+        int unfetchedPages = 0;
+        
+        while (in.hasRemaining()) {
+            int type = in.get();
+            switch (type) {
+                case ResultWriter.RECORD_FILE: {
+                    int flags = in.get();
+                    String dir = readString(in, dirTable);
+                    String name = readString(in, nameTable);
+                    WebLink xref = (flags & ResultWriter.FLAG_XREF) != 0 ? readLink(in, urlTable) : null;
+                    WebLink more = (flags & ResultWriter.FLAG_MORE) != 0 ? readLink(in, urlTable) : null;
+                    
+                    FileMatch match = new FileMatch(dir, name, xref);
+                    if ((flags & ResultWriter.FLAG_ABRIDGED) != 0)
+                        match.setAbridged(more);
+                    attachBlock(in, match, store);
+                    files.add(match);
+                    break;
+                }
+                
+                case ResultWriter.RECORD_LINES: {
+                    int index = LineCodec.readVarint(in);
+                    if (index >= files.size())
+                        throw new IOException("Line record for unknown file " + index);
+                    
+                    FileMatch match = files.get(index);
+                    if ((in.get() & ResultWriter.FLAG_ABRIDGED) == 0)
+                        match.setUnabridged();
+                    attachBlock(in, match, store);
+                    break;
+                }
+                
+                case ResultWriter.RECORD_TRAILER:
+                    trailerFlags = in.get();
+                    if ((trailerFlags & ResultWriter.FLAG_START) != 0)
+                        startLink = new WebLink(url(LineCodec.readString(in)), null);
+                    fetchedPages = LineCodec.readVarint(in);
+                    unfetchedPages = LineCodec.readVarint(in);
+                    break;
+                
+                default:
+                    throw new IOException("Unknown record type " + type);
+            }
+        }
+        
+        SearchResult result = new SearchResult(startLink, null);
+        for (FileMatch match : files)
+            result.mergeFileMatch(match);
+        
+        result.setPageLimitTriggered((trailerFlags & ResultWriter.FLAG_PAGE_LIMIT) != 0);
+        result.setAborted((trailerFlags & ResultWriter.FLAG_ABORTED) != 0);
+        result.setStopped((trailerFlags & ResultWriter.FLAG_STOPPED) != 0);
+        result.restorePageCounts(fetchedPages, unfetchedPages);
+        
+        return result;
+    }
+    
+    /**
+     * Attaches the line block at the current position to a file match, without decoding
+     * more than the line count, and skips to the end of the block.
+     */
+    private static void attachBlock(ByteBuffer in, FileMatch match, LineStore store) {
+        int length = LineCodec.readVarint(in);
+        int address = in.position();
+        int count = LineCodec.readVarint(in);
+        match.attachLines(store, address, count);
+        in.position(address + length);
+    }
+    
+    private static String readString(ByteBuffer in, List<String> table) throws IOException {
+        int index = LineCodec.readVarint(in);
+        if (index < table.size())
+            return table.get(index);
+        if (index > table.size())
+            throw new IOException("Invalid string table reference " + index);
+        
+        String s = LineCodec.readString(in);
+        table.add(s);
+        return s;
+    }
+    
+    private static WebLink readLink(ByteBuffer in, List<String> urlTable) throws IOException {
+        URL url = url(LineCodec.readString(in));
+        String referer = readString(in, urlTable);
+        return new WebLink(url, referer.length() > 0 ? url(referer) : null);
+    }
+    
+    private static URL url(String s) throws IOException {
+        try {
+            return new URL(s);
+        }
+        catch (MalformedURLException e) {
+            throw new IOException("Invalid URL in result file: " + s, e);
+        }
+    }
+    
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.bastisoft.ogre;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.bastisoft.ogre.event.ResultReceiver;
+
+/**
+ * Saves search results in a compact binary format that can be loaded again with
+ * {@link ResultReader}.
+ * 
+ * <p>A writer can be registered as a result receiver with a scraper, in which case it
+ * writes file matches while the search is still running. When the search is complete,
+ * {@link #finish} records the outcome of the search. A result that is already complete
+ * can be saved with {@link #write(SearchResult, File)}.
+ * 
+ * <p>The file starts with a magic number and a format version, followed by a sequence of
+ * records. Directory names, file names and referring URLs are written only once and then
+ * referred to by their index in a string table that grows as the file is written. The line
+ * matches of a file are written as a length-prefixed block (see {@link LineCodec}), so a
+ * reader can skip them until they are needed. If a file match is amended, a record with
+ * the complete new set of line matches supersedes the earlier one.
+ * 
+ * <p>Errors while writing from a result receiver callback cannot be reported to the
+ * scraper; they are remembered and thrown from {@link #finish} or {@link #close}.
+ */
+public class ResultWriter implements ResultReceiver, Closeable {
+
+    static final int MAGIC = 0x4f475245;    // "OGRE"
+    static final int VERSION = 1;
+    
+    static final int RECORD_FILE    = 1;
+    static final int RECORD_LINES   = 2;
+    static final int RECORD_TRAILER = 3;
+    
+    static final int FLAG_ABRIDGED  = 1;
+    static final int FLAG_XREF      = 2;
+    static final int FLAG_MORE      = 4;
+    
+    static final int FLAG_PAGE_LIMIT = 1;
+    static final int FLAG_ABORTED    = 2;
+    static final int FLAG_START      = 4;
+    static final int FLAG_STOPPED    = 8;
+    
+    private OutputStream out;
+    private ByteArrayOutputStream record;
+    
+    private Map<String, Integer> fileIndex;
+    private Map<String, Integer> dirTable;
+    private Map<String, Integer> nameTable;
+    private Map<String, Integer> urlTable;
+    
+    private IOException failure;
+    private boolean finished;
+    
+    /**
+     * Creates a writer that writes to a file. An existing file is overwritten.
+     * 
+     * @param file the file
+     * @throws IOException if the file cannot be created
+     */
+    public ResultWriter(File file) throws IOException {
+        this(new FileOutputStream(file));
+    }
+    
+    /**
+     * Creates a writer that writes to a stream. The stream is closed when the writer is
+     * closed.
+     * 
+     * @param out the stream
+     * @throws IOException if the header cannot be written
+     */
+    public ResultWriter(OutputStream out) throws IOException {
+        this.out = new BufferedOutputStream(out, 64 * 1024);
+        record = new ByteArrayOutputStream(4096);
+        fileIndex = new HashMap<>();
+        dirTable = new HashMap<>();
+        nameTable = new HashMap<>();
+        urlTable = new HashMap<>();
+        
+        writeInt(MAGIC);
+        LineCodec.writeVarint(record, VERSION);
+        flushRecord();
+    }
+    
+    /**
+     * Saves a complete search result to a file.
+     * 
+     * @param result the search result
+     * @param file the file
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(SearchResult result, File file) throws IOException {
+        try (ResultWriter writer = new ResultWriter(file)) {
+            writer.newFileMatches(result.files());
+            writer.finish(result);
+        }
+    }
+    
+    @Override
+    public synchronized void newFileMatches(Collection<FileMatch> newMatches) {
+        if (failure != null || finished)
+            return;
+        
+        try {
+            for (FileMatch match : newMatches)
+                if (!fileIndex.containsKey(match.getFullName()))
+                    writeFile(match);
+            out.flush();
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+    }
+    
+    @Override
+    public synchronized void newLineMatches(FileMatch amendedMatch) {
+        if (failure != null || finished)
+            return;
+        
+        try {
+            Integer index = fileIndex.get(amendedMatch.getFullName());
+            if (index == null)
+                writeFile(amendedMatch);
+            else {
+                record.write(RECORD_LINES);
+                LineCodec.writeVarint(record, index);
+                record.write(amendedMatch.abridged() ? FLAG_ABRIDGED : 0);
+                writeLineBlock(amendedMatch);
+                flushRecord();
+            }
+            out.flush();
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+    }
+    
+    private void writeFile(FileMatch match) throws IOException {
+        fileIndex.put(match.getFullName(), fileIndex.size());
+        
+        WebLink xref = match.getXrefLink();
+        WebLink more = match.getMoreLink();
+        
+        record.write(RECORD_FILE);
+        record.write((match.abridged() ? FLAG_ABRIDGED : 0)
+                | (xref != null ? FLAG_XREF : 0)
+                | (more != null ? FLAG_MORE : 0));
+        writeString(dirTable, match.getDirectory());
+        writeString(nameTable, match.getFilename());
+        if (xref != null)
+            writeLink(xref);
+        if (more != null)
+            writeLink(more);
+        writeLineBlock(match);
+        flushRecord();
+    }
+    
+    private void writeLink(WebLink link) {
+        LineCodec.writeString(record, link.url.toExternalForm());
+        writeString(urlTable, link.referer != null ? link.referer.toExternalForm() : "");
+    }
+    
+    private void writeLineBlock(FileMatch match) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream(64 * match.lineCount() + 16);
+        LineCodec.encode(match.getLines().toArray(new LineMatch[0]), match.getXrefLink(), block);
+        LineCodec.writeVarint(record, block.size());
+        record.write(block.toByteArray(), 0, block.size());
+    }
+    
+    /**
+     * Writes a string as a reference to a string table. A string that is not yet in the
+     * table is added, and written in full following its new index.
+     */
+    private void writeString(Map<String, Integer> table, String s) {
+        Integer index = table.get(s);
+        if (index != null)
+            LineCodec.writeVarint(record, index);
+        else {
+            LineCodec.writeVarint(record, table.size());
+            LineCodec.writeString(record, s);
+            table.put(s, table.size());
+        }
+    }
+    
+    /**
+     * Records the outcome of the search and flushes the file. Nothing can be written
+     * after this.
+     * 
+     * @param result the result of the search that has been written
+     * @throws IOException if writing failed at any point
+     */
+    public synchronized void finish(SearchResult result) throws IOException {
+        if (failure != null)
+            throw failure;
+        if (finished)
+            return;
+        
+        WebLink start = result.startLink();
+        
+        record.write(RECORD_TRAILER);
+        record.write((result.pageLimitTriggered() ? FLAG_PAGE_LIMIT : 0)
+                | (result.aborted() ? FLAG_ABORTED : 0)
+                | (result.stopped() ? FLAG_STOPPED : 0)
+                | (start != null ? FLAG_START : 0));
+        if (start != null)
+            LineCodec.writeString(record, start.url.toExternalForm());
+        LineCodec.writeVarint(record, result.fetchedPageCount());
+        LineCodec.writeVarint(record, result.unfetchedPageCount());
+        flushRecord();
+        out.flush();
+        
+        finished = true;
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+        if (failure != null)
+            throw failure;
+    }
+    
+    private void writeInt(int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+    
+    private void flushRecord() throws IOException {
+        record.writeTo(out);
+        record.reset();
+    }
+    
+}
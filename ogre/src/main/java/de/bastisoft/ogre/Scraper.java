@@ -16,45 +16,66 @@
 
 package de.bastisoft.ogre;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
 import java.net.Proxy;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.xml.sax.SAXException;
 
+import de.bastisoft.ogre.event.ActivityListener;
+import de.bastisoft.ogre.event.ActivityListener.Kind;
+import de.bastisoft.ogre.event.BatchReceiver;
+import de.bastisoft.ogre.event.BatchingReceiver;
 import de.bastisoft.ogre.event.ProgressListener;
 import de.bastisoft.ogre.event.ProgressListener.Phase;
 import de.bastisoft.ogre.event.ResultReceiver;
+import de.bastisoft.ogre.event.TelemetryListener;
 
 public class Scraper {
-    
+
     private String userAgent;
     
     private URL basicURL;
     private Proxy proxy;
+    private Transport transport;
     private int pageLimit;
-    private boolean aborted;
+    private volatile boolean aborted;
     private boolean fetchLines;
     private boolean fetchLinesLast;
+    private File spillDirectory;
+    private PageCache pageCache;
+    private Projection projection;
     
     private Collection<ProgressListener> progressListeners;
+    private Collection<TelemetryListener> telemetryListeners;
     private Collection<ResultReceiver> resultReceivers;
+    private Collection<BatchingReceiver> batchingReceivers;
+    private Collection<StopCondition> stopConditions;
     
     {
         pageLimit = 20;
         fetchLines = true;
         fetchLinesLast = true;
+        projection = Projection.FULL;
         progressListeners = new ArrayList<>();
+        telemetryListeners = new ArrayList<>();
         resultReceivers = new ArrayList<>();
+        batchingReceivers = new ArrayList<>();
+        stopConditions = new ArrayList<>();
     }
     
     /**
@@ -77,6 +98,27 @@ public class Scraper {
     public Scraper(URL path, Proxy proxy) {
         this.basicURL = path;
         this.proxy = proxy == null ? Proxy.NO_PROXY : proxy;
+        transport = new HttpTransport();
+    }
+    
+    /**
+     * Creates a scraper with the same configuration as this one, but without any listeners,
+     * receivers or stop conditions. Searches that run at the same time need scrapers of
+     * their own.
+     * 
+     * @return the new scraper
+     */
+    Scraper copy() {
+        Scraper copy = new Scraper(basicURL, proxy);
+        copy.userAgent = userAgent;
+        copy.pageLimit = pageLimit;
+        copy.fetchLines = fetchLines;
+        copy.fetchLinesLast = fetchLinesLast;
+        copy.spillDirectory = spillDirectory;
+        copy.pageCache = pageCache;
+        copy.projection = projection;
+        copy.transport = transport;
+        return copy;
     }
     
     /**
@@ -131,6 +173,64 @@ public class Scraper {
         this.fetchLinesLast = fetchLinesLast;
     }
     
+    /**
+     * Sets how much of the search results is extracted. With anything but the full
+     * projection, result pages are parsed faster, and additional line matches are never
+     * fetched, regardless of {@link #setFetchLines}.
+     * 
+     * @param projection what to extract from the result pages
+     */
+    public void setProjection(Projection projection) {
+        this.projection = projection;
+    }
+    
+    Projection projection() {
+        return projection;
+    }
+    
+    int pageLimit() {
+        return pageLimit;
+    }
+    
+    /**
+     * Configures the scraper to keep the line matches of search results in a temporary
+     * file instead of on the heap. Line matches are written to the file as they arrive and
+     * read back whenever they are requested, so the heap only has to hold the directory
+     * and file names of the matches. This is meant for very large result sets.
+     * 
+     * <p>Search results created this way hold on to their file until they are closed.
+     * 
+     * @param directory directory for the spill files, or <code>null</code> to keep line
+     *          matches on the heap (which is the default)
+     * @see SearchResult#close()
+     */
+    public void setSpillDirectory(File directory) {
+        this.spillDirectory = directory;
+    }
+    
+    /**
+     * Sets a page cache that allows the scraper to skip parsing pages that have not changed
+     * since they were last fetched through the same cache. This is useful when the same
+     * searches are placed repeatedly.
+     * 
+     * @param pageCache page cache, or <code>null</code> to parse every page (the default)
+     * @see SearchWatcher
+     */
+    public void setPageCache(PageCache pageCache) {
+        this.pageCache = pageCache;
+    }
+    
+    /**
+     * Sets the transport that carries out the HTTP requests, for example to record the
+     * traffic or to replay recorded traffic (see {@link de.bastisoft.ogre.trace.TraceRecorder}
+     * and {@link de.bastisoft.ogre.trace.TraceReplay}).
+     * 
+     * @param transport the transport, or <code>null</code> for the default, {@link HttpTransport}
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport != null ? transport : new HttpTransport();
+    }
+    
     /**
      * Adds a progress listener that will receive progress updates, including partial
      * results, during a retrieval run.
@@ -141,6 +241,16 @@ public class Scraper {
         progressListeners.add(listener);
     }
     
+    /**
+     * Adds a telemetry listener that will receive timing and throughput figures after every
+     * request during a retrieval run.
+     * 
+     * @param listener telemetry listener
+     */
+    public void addTelemetryListener(TelemetryListener listener) {
+        telemetryListeners.add(listener);
+    }
+    
     public void abort() {
         aborted = true;
     }
@@ -155,6 +265,42 @@ public class Scraper {
         resultReceivers.add(receiver);
     }
     
+    /**
+     * Adds a receiver that receives preliminary results in batches. This saves receivers
+     * that have a fixed cost per event, such as handing it over to another thread, from
+     * being flooded with events while additional line matches are fetched. The last batch
+     * is delivered before a search returns.
+     * 
+     * @param receiver batch receiver
+     * @param window maximum milliseconds between the first event of a batch and its delivery
+     * @param maxBatch maximum number of file matches in a batch
+     * @see BatchingReceiver
+     */
+    public void addBatchReceiver(BatchReceiver receiver, long window, int maxBatch) {
+        BatchingReceiver batching = new BatchingReceiver(receiver, window, maxBatch);
+        batchingReceivers.add(batching);
+        resultReceivers.add(batching);
+    }
+    
+    /**
+     * Adds a condition under which a search run ends early, before the page limit has
+     * been reached. The search stops as soon as any of the stop conditions is satisfied.
+     * 
+     * @param condition stop condition
+     * @see StopCondition#maxFiles
+     * @see StopCondition#maxLines
+     */
+    public void addStopCondition(StopCondition condition) {
+        stopConditions.add(condition);
+    }
+    
+    boolean stopConditionSatisfied(SearchResult result, FileMatch match) {
+        for (StopCondition c : stopConditions)
+            if (c.satisfied(result, match))
+                return true;
+        return false;
+    }
+    
     private void notifyProgress(Phase phase, int current, int overall) {
         for (ProgressListener l : progressListeners)
             l.progress(phase, current, overall);
@@ -165,6 +311,26 @@ public class Scraper {
             l.currentCounts(result.dirCount(), result.fileCount(), result.lineCount());
     }
     
+    private void notifyTelemetry(Phase phase, RunStats stats, SearchResult result, int pending) {
+        if (telemetryListeners.isEmpty())
+            return;
+        
+        SearchTelemetry telemetry = new SearchTelemetry(phase, stats.lastURL,
+                stats.lastLatencyNanos / 1000000, stats.lastRequestNanos / 1000000, stats.lastBytes,
+                stats.requests, stats.bytes, (System.nanoTime() - stats.start) / 1000000,
+                result.fetchedPageCount(), result.lineCount(), pending);
+        for (TelemetryListener l : telemetryListeners)
+            l.requestCompleted(telemetry);
+    }
+    
+    /**
+     * Returns the number of requests still to be made in a search run, as far as known.
+     */
+    private int remainingRequests(SearchResult result, int pagecount, boolean moreLines) {
+        int pages = Math.max(0, Math.min(result.unfetchedPageCount(), pageLimit - pagecount));
+        return moreLines ? pages + result.abridgedFileCount() : pages;
+    }
+    
     private void notifyNewFileMatches(Collection<FileMatch> matches) {
         for (ResultReceiver r : resultReceivers)
             r.newFileMatches(matches);
@@ -197,80 +363,156 @@ public class Scraper {
     public SearchResult search(String query, String defs, String refs, String path, String hist, String project) throws ScraperException {
         aborted = false;
         
-        StringBuilder params = new StringBuilder();
+        String params = params(query, defs, refs, path, hist, project);
         
-        append(params, query, "q");
-        append(params, defs, "defs");
-        append(params, refs, "refs");
-        append(params, path, "path");
-        append(params, hist, "hist");
-        append(params, project, "project");
+        ActivityListener[] tracers = Instrumentation.begin(Kind.SEARCH);
+        RunStats stats = new RunStats();
+        SearchResult result = null;
+        boolean complete = false;
         
         try {
             WebLink basicLink = new WebLink(basicURL, null);
             
-            if (pageLimit > 0)
-                basicLink = followRedirect(basicLink);
+            if (pageLimit > 0) {
+                WebLink redirected = pageCache != null ? pageCache.redirect(basicURL.toExternalForm()) : null;
+                if (redirected == null) {
+                    redirected = followRedirect(basicLink);
+                    if (pageCache != null)
+                        pageCache.storeRedirect(basicURL.toExternalForm(), redirected);
+                }
+                basicLink = redirected;
+            }
             
-            SearchResult result = new SearchResult(new WebLink(new URL(basicLink.url, "search?" + params), null));
+            WebLink searchLink = new WebLink(new URL(basicLink.url, "search?" + params), null);
+            result = new SearchResult(searchLink, spillDirectory != null ? new SpillFile(spillDirectory) : null);
             
             int current = 0;
             int pagecount = 0;
+            boolean stopped = false;
+            boolean moreLines = fetchLines && projection == Projection.FULL;
             
             WebLink next = null;
-            while (pagecount < pageLimit && !aborted && (next = result.nextPage()) != null) {
+            while (pagecount < pageLimit && !aborted && !stopped && (next = result.nextPage()) != null) {
                 int pending = result.unfetchedPageCount();
-                if (fetchLines) pending += result.abridgedFileCount();
+                if (moreLines) pending += result.abridgedFileCount();
                 notifyProgress(Phase.FILES, current, pending);
                 current++;
                 pagecount++;
                 
-                ResultPage page = new ResultParser(fetch(next)).parsePage();
+                ResultPage page = fetchPage(next, stats);
                 result.notifyFetched(page);
                 
                 Collection<FileMatch> newMatches = new ArrayList<>();
+                long mergeStart = Instrumentation.start();
                 for (FileMatch match : page.fileMatches) {
                     FileMatch merged = result.mergeFileMatch(match);
                     if (merged != match)
                         notifyNewLineMatches(merged);
                     else
                         newMatches.add(match);
+                    
+                    if (stopConditionSatisfied(result, merged)) {
+                        stopped = true;
+                        break;
+                    }
                 }
+                Instrumentation.end(next.url.getHost(), Stage.MERGE, mergeStart);
                 
                 notifyNewFileMatches(newMatches);
                 notifyCounts(result);
+                notifyTelemetry(Phase.FILES, stats, result, remainingRequests(result, pagecount, moreLines));
                 
-                if (fetchLines && !fetchLinesLast) {
+                if (moreLines && !fetchLinesLast) {
                     pending = result.unfetchedPageCount() + result.abridgedFileCount();
                     FileMatch match;
-                    while ((match = result.nextAbridgedFile()) != null && !aborted) {
+                    while (!stopped && !aborted && (match = result.nextAbridgedFile()) != null) {
                         notifyProgress(Phase.LINES, current++, pending--);
-                        result.mergeLines(match, new ResultParser(fetch(match.getMoreLink())).parseMore());
+                        mergeLines(result, match, fetchMore(match.getMoreLink(), stats));
                         notifyNewLineMatches(match);
                         notifyCounts(result);
+                        notifyTelemetry(Phase.LINES, stats, result, remainingRequests(result, pagecount, moreLines));
+                        stopped = stopConditionSatisfied(result, match);
                     }
                 }
             }
             
-            if (fetchLines && fetchLinesLast) {
+            if (moreLines && fetchLinesLast) {
                 int pending = result.unfetchedPageCount() + result.abridgedFileCount();
                 FileMatch match;
-                while ((match = result.nextAbridgedFile()) != null && !aborted) {
+                while (!stopped && !aborted && (match = result.nextAbridgedFile()) != null) {
                     notifyProgress(Phase.LINES, current++, pending--);
-                    result.mergeLines(match, new ResultParser(fetch(match.getMoreLink())).parseMore());
+                    mergeLines(result, match, fetchMore(match.getMoreLink(), stats));
                     notifyNewLineMatches(match);
                     notifyCounts(result);
+                    notifyTelemetry(Phase.LINES, stats, result, remainingRequests(result, pagecount, moreLines));
+                    stopped = stopConditionSatisfied(result, match);
                 }
             }
             
             result.setPageLimitTriggered(pageLimit < 1 || next != null && pagecount >= pageLimit);
             result.setAborted(aborted);
+            result.setStopped(stopped);
             
+            complete = true;
             return result;
         }
         catch (IOException | ParserConfigurationException | SAXException e) {
             throw new ScraperException("Error executing search query: " + e.getMessage(), e);
         }
+        finally {
+            // The caller never gets a failed search's result, so release its spill file here
+            if (!complete && result != null) {
+                try {
+                    result.close();
+                }
+                catch (IOException e) {
+                    // Report the failure of the search rather than this one
+                }
+            }
+            
+            for (BatchingReceiver b : batchingReceivers)
+                b.flush();
+            
+            if (tracers.length > 0)
+                Instrumentation.finish(tracers, Kind.SEARCH,
+                        result != null ? result.startLink().url.toExternalForm() : basicURL.toExternalForm(),
+                        stats.bytes, result != null ? result.fileCount() : 0, result != null ? result.lineCount() : 0);
+        }
+    }
+    
+    /**
+     * Places a search with the OpenGrok server, like {@link #search(String, String, String,
+     * String, String, String)}.
+     * 
+     * @param query the query fields
+     * @return list of file matches returned by the search
+     * @throws ScraperException if communication failures prevent a successful completion of
+     *          the query, or if an error is encountered while parsing the result pages
+     */
+    public SearchResult search(Query query) throws ScraperException {
+        return search(query.getQuery(), query.getDefs(), query.getRefs(), query.getPath(), query.getHist(), query.getProject());
+    }
+    
+    /**
+     * Returns the length of the URL the first result page of a search is requested from.
+     * Redirects of the base URL are not taken into account.
+     */
+    int requestLength(Query query) {
+        String params = params(query.getQuery(), query.getDefs(), query.getRefs(), query.getPath(), query.getHist(), query.getProject());
+        return basicURL.toExternalForm().length() + "search?".length() + params.length();
+    }
+    
+    private static String params(String query, String defs, String refs, String path, String hist, String project) {
+        StringBuilder params = new StringBuilder();
+        
+        append(params, query, "q");
+        append(params, defs, "defs");
+        append(params, refs, "refs");
+        append(params, path, "path");
+        append(params, hist, "hist");
+        append(params, project, "project");
+        
+        return params.toString();
     }
     
     private static void append(StringBuilder sb, String value, String tag) {
@@ -309,26 +551,192 @@ public class Scraper {
          * look at the returned URL, and throw away the content. We should use a proper HTTP library
          * and issue a HEAD instead. */
         
-        HttpURLConnection conn = (HttpURLConnection) (proxy != null ? link.url.openConnection(proxy) : link.url.openConnection());
-        conn.setRequestProperty("User-Agent", getUserAgent());
-        if (link.referer != null)
-            conn.setRequestProperty("Referer", link.referer.toExternalForm());
-        try (InputStream in = conn.getInputStream()) {
+        try (Transport.Response response = transport.get(link.url, requestHeaders(link), proxy)) {
+            InputStream in = response.getBody();
             while (in.read() > -1);
-            return new WebLink(conn.getURL(), link.referer);
+            return new WebLink(response.getURL(), link.referer);
         }
     }
     
-    private FetchResponse fetch(WebLink link) throws IOException, ParserConfigurationException, SAXException {
-        HttpURLConnection conn = (HttpURLConnection) (proxy != null ? link.url.openConnection(proxy) : link.url.openConnection());
-        conn.setRequestProperty("User-Agent", getUserAgent());
-        if (link.referer != null)
-            conn.setRequestProperty("Referer", link.referer.toExternalForm());
-        try (InputStream in = conn.getInputStream()) {
-            return new FetchResponse(new CorrectingReader(in, null).parse(), conn.getURL());
+    /**
+     * Fetches and parses a result page, unless the page cache knows it to be unchanged.
+     */
+    private ResultPage fetchPage(WebLink link, RunStats stats) throws IOException, ParserConfigurationException, SAXException, ScraperException {
+        ActivityListener[] tracers = Instrumentation.begin(Kind.PAGE_FETCH);
+        Download download = null;
+        ResultPage page = null;
+        try {
+            download = download(link);
+            stats.record(download);
+            if (pageCache == null)
+                page = parsePage(download);
+            else {
+                // Pages parsed with different projections have different content
+                String key = projection == Projection.FULL ? link.url.toExternalForm() : projection + " " + link.url.toExternalForm();
+                byte[] fingerprint = PageCache.fingerprint(download.body);
+                page = pageCache.resultPage(key, fingerprint);
+                if (page == null) {
+                    page = parsePage(download);
+                    pageCache.storeResultPage(key, fingerprint, page);
+                }
+            }
+            return page;
+        }
+        finally {
+            if (tracers.length > 0)
+                Instrumentation.finish(tracers, Kind.PAGE_FETCH, link.url.toExternalForm(), download != null ? download.body.length : 0,
+                        page != null ? page.fileMatches.size() : 0, page != null ? lineCount(page) : 0);
+        }
+    }
+    
+    /**
+     * Fetches and parses a page with the full list of line matches for a file, unless the
+     * page cache knows it to be unchanged.
+     */
+    private List<LineMatch> fetchMore(WebLink link, RunStats stats) throws IOException, ParserConfigurationException, SAXException, ScraperException {
+        ActivityListener[] tracers = Instrumentation.begin(Kind.MORE_FETCH);
+        Download download = null;
+        List<LineMatch> lines = null;
+        try {
+            download = download(link);
+            stats.record(download);
+            if (pageCache == null)
+                lines = parseMore(download);
+            else {
+                String key = link.url.toExternalForm();
+                byte[] fingerprint = PageCache.fingerprint(download.body);
+                lines = pageCache.morePage(key, fingerprint);
+                if (lines == null) {
+                    lines = parseMore(download);
+                    pageCache.storeMorePage(key, fingerprint, lines);
+                }
+            }
+            return lines;
+        }
+        finally {
+            if (tracers.length > 0)
+                Instrumentation.finish(tracers, Kind.MORE_FETCH, link.url.toExternalForm(), download != null ? download.body.length : 0,
+                        lines != null ? 1 : 0, lines != null ? lines.size() : 0);
         }
     }
     
+    private ResultPage parsePage(Download download) throws IOException, ParserConfigurationException, SAXException, ScraperException {
+        ActivityListener[] tracers = Instrumentation.begin(Kind.PARSE);
+        ResultPage page = null;
+        try {
+            ResultParser parser = new ResultParser(parse(download));
+            long start = Instrumentation.start();
+            page = parser.parsePage(projection);
+            Instrumentation.end(download.url.getHost(), Stage.XPATH, start);
+            return page;
+        }
+        finally {
+            if (tracers.length > 0)
+                Instrumentation.finish(tracers, Kind.PARSE, download.url.toExternalForm(), download.body.length,
+                        page != null ? page.fileMatches.size() : 0, page != null ? lineCount(page) : 0);
+        }
+    }
+    
+    private static List<LineMatch> parseMore(Download download) throws IOException, ParserConfigurationException, SAXException, ScraperException {
+        ActivityListener[] tracers = Instrumentation.begin(Kind.PARSE);
+        List<LineMatch> lines = null;
+        try {
+            ResultParser parser = new ResultParser(parse(download));
+            long start = Instrumentation.start();
+            lines = parser.parseMore();
+            Instrumentation.end(download.url.getHost(), Stage.XPATH, start);
+            return lines;
+        }
+        finally {
+            if (tracers.length > 0)
+                Instrumentation.finish(tracers, Kind.PARSE, download.url.toExternalForm(), download.body.length,
+                        lines != null ? 1 : 0, lines != null ? lines.size() : 0);
+        }
+    }
+    
+    private static int lineCount(ResultPage page) {
+        int lines = 0;
+        for (FileMatch match : page.fileMatches)
+            lines += match.lineCount();
+        return lines;
+    }
+    
+    private static void mergeLines(SearchResult result, FileMatch match, List<LineMatch> lines) {
+        String host = match.getMoreLink().url.getHost();
+        long start = Instrumentation.start();
+        result.mergeLines(match, lines);
+        Instrumentation.end(host, Stage.MERGE, start);
+    }
+    
+    private static class Download {
+        
+        final byte[] body;
+        final URL url;
+        final long latencyNanos;
+        final long requestNanos;
+        
+        Download(byte[] body, URL url, long latencyNanos, long requestNanos) {
+            this.body = body;
+            this.url = url;
+            this.latencyNanos = latencyNanos;
+            this.requestNanos = requestNanos;
+        }
+        
+    }
+    
+    /**
+     * Request statistics of a search run.
+     */
+    private static class RunStats {
+        
+        final long start = System.nanoTime();
+        int requests;
+        long bytes;
+        
+        String lastURL;
+        long lastLatencyNanos;
+        long lastRequestNanos;
+        int lastBytes;
+        
+        void record(Download download) {
+            requests++;
+            bytes += download.body.length;
+            lastURL = download.url.toExternalForm();
+            lastLatencyNanos = download.latencyNanos;
+            lastRequestNanos = download.requestNanos;
+            lastBytes = download.body.length;
+        }
+        
+    }
+    
+    private Download download(WebLink link) throws IOException {
+        long start = System.nanoTime();
+        try (Transport.Response response = transport.get(link.url, requestHeaders(link), proxy)) {
+            long latency = System.nanoTime() - start;
+            InputStream in = response.getBody();
+            ByteArrayOutputStream body = new ByteArrayOutputStream(64 * 1024);
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > -1)
+                body.write(buffer, 0, n);
+            long total = System.nanoTime() - start;
+            Instrumentation.record(link.url.getHost(), Stage.NETWORK, total);
+            return new Download(body.toByteArray(), response.getURL(), latency, total);
+        }
+    }
+    
+    private Map<String, String> requestHeaders(WebLink link) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("User-Agent", getUserAgent());
+        if (link.referer != null)
+            headers.put("Referer", link.referer.toExternalForm());
+        return headers;
+    }
+    
+    private static FetchResponse parse(Download download) throws IOException, ParserConfigurationException, SAXException {
+        return new FetchResponse(new CorrectingReader(new ByteArrayInputStream(download.body), null, download.url).parse(), download.url);
+    }
+    
     private String getUserAgent() {
         if (userAgent == null) {
             try (InputStream in = getClass().getResourceAsStream("version.properties")) {
@@ -1,32 +1,80 @@
 package de.bastisoft.ogre;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class SearchResult {
+/**
+ * The result of a search. An instance is filled while the search is running and may be
+ * read at any time; it may also be filled by several threads at once.
+ * 
+ * <p>Merging is striped by file name: two threads only ever wait for each other if they
+ * merge matches for files that hash to the same stripe. Counters are maintained atomically,
+ * and {@link #files()} returns a snapshot that does not change when further matches are
+ * merged.
+ * 
+ * <p>A search result may keep the line matches of its files in a spill file instead of on
+ * the heap (see {@link Scraper#setSpillDirectory}). Such a result should be closed when it
+ * is no longer needed, which deletes the file; line matches cannot be read after that.
+ */
+public class SearchResult implements Closeable {
 
-    private List<FileMatch> matches;
-    private int nextAbridged;
+    private static final int STRIPES = 32;
     
-    private List<WebLink> resultPages;
+    private final Object[] stripes;
+    
+    // Guarded by itself; the index is what decides whether a file is new.
+    private final List<FileMatch> matches;
+    private final ConcurrentMap<String, FileMatch> matchIndex;
+    
+    /* File matches that were abridged when they were merged, in the order in which they
+     * were found. Matches that have since been amended are only removed once they reach
+     * the head of the queue, so abridgedCount is maintained separately. */
+    private final Queue<FileMatch> abridgedQueue;
+    private final AtomicInteger abridgedCount;
+    
+    // All guarded by resultPages; the counts of restored results add to those of the list.
+    private final List<WebLink> resultPages;
+    private final Set<String> pageURLs;
     private int nextPage;
+    private int restoredFetched;
+    private int restoredUnfetched;
     
-    private boolean limitTriggered;
-    private boolean aborted;
+    private volatile boolean limitTriggered;
+    private volatile boolean aborted;
+    private volatile boolean stopped;
     
-    private Set<String> dirNames;
-    private int lineCount;
+    private final Set<String> dirNames;
+    private final AtomicInteger fileCount;
+    private final AtomicInteger lineCount;
+    
+    private final LineStore lineStore;
     
     
     
     // Public API
     
+    /**
+     * Returns the file matches of this result in the order in which they were found. The
+     * returned collection is a snapshot; it is safe to iterate over it while the search
+     * is still running, but it will not contain files that are found later on.
+     * 
+     * @return snapshot of the file matches found so far
+     */
     public Collection<FileMatch> files() {
-        return Collections.unmodifiableCollection(matches);
+        synchronized (matches) {
+            return Collections.unmodifiableList(new ArrayList<>(matches));
+        }
     }
     
     public boolean pageLimitTriggered() {
@@ -37,25 +85,29 @@ public class SearchResult {
         return aborted;
     }
     
+    /**
+     * Tells whether the search ended early because a stop condition was satisfied.
+     * 
+     * @return <code>true</code> if the search was stopped by a {@link StopCondition}
+     */
+    public boolean stopped() {
+        return stopped;
+    }
+    
     public int fetchedPageCount() {
-        return nextPage;
+        synchronized (resultPages) {
+            return nextPage + restoredFetched;
+        }
     }
     
     public int unfetchedPageCount() {
-        return resultPages.size() - nextPage;
+        synchronized (resultPages) {
+            return resultPages.size() - nextPage + restoredUnfetched;
+        }
     }
     
     public int abridgedFileCount() {
-        int n = 0;
-        
-        // advance the pointer if possible
-        nextAbridgedFile();
-        
-        for (int i = nextAbridged; i < matches.size(); i++)
-            if (matches.get(i).abridged())
-                n++;
-        
-        return n;
+        return abridgedCount.get();
     }
     
     public int dirCount() {
@@ -63,21 +115,108 @@ public class SearchResult {
     }
     
     public int fileCount() {
-        return matches.size();
+        return fileCount.get();
     }
     
     public int lineCount() {
-        return lineCount;
+        return lineCount.get();
+    }
+    
+    /**
+     * Releases the spill file of this search result, if it has one. Otherwise, this
+     * method does nothing.
+     * 
+     * @throws IOException if the spill file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (lineStore instanceof Closeable)
+            ((Closeable) lineStore).close();
     }
     
     
     // OGRE internal API
     
     SearchResult(WebLink startURL) {
+        this(startURL, null);
+    }
+    
+    /**
+     * Creates a search result that moves the line matches of all its files into a line
+     * store as they are merged.
+     * 
+     * @param startURL the first result page of the search, or <code>null</code> if this
+     *          result was not obtained by a search (e.g. restored from a saved result)
+     * @param lineStore line store, or <code>null</code> to keep line matches on the heap
+     */
+    SearchResult(WebLink startURL, LineStore lineStore) {
+        this.lineStore = lineStore;
+        
+        stripes = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Object();
+        
         matches = new ArrayList<>();
+        matchIndex = new ConcurrentHashMap<>();
+        abridgedQueue = new ConcurrentLinkedQueue<>();
+        abridgedCount = new AtomicInteger();
+        
         resultPages = new ArrayList<>();
-        resultPages.add(startURL);
-        dirNames = new HashSet<>();
+        pageURLs = new HashSet<>();
+        if (startURL != null) {
+            resultPages.add(startURL);
+            pageURLs.add(startURL.url.toExternalForm());
+        }
+        
+        dirNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        fileCount = new AtomicInteger();
+        lineCount = new AtomicInteger();
+    }
+    
+    /**
+     * Sets the page counts of a result that has been restored rather than fetched. The
+     * links to the pages are not restored, so all pages known to this result count as
+     * fetched, and there is no next page.
+     * 
+     * @param fetched number of result pages that had been fetched
+     * @param unfetched number of result pages that had not been fetched
+     */
+    void restorePageCounts(int fetched, int unfetched) {
+        synchronized (resultPages) {
+            nextPage = resultPages.size();
+            restoredFetched = fetched - nextPage;
+            restoredUnfetched = unfetched;
+        }
+    }
+    
+    /**
+     * Creates an independent copy of this search result. The copy keeps its line matches
+     * on the heap and has the same outcome and page counts, but no links to further result
+     * pages.
+     * 
+     * @return the copy
+     */
+    SearchResult copy() {
+        SearchResult copy = new SearchResult(startLink(), null);
+        for (FileMatch match : files())
+            copy.mergeFileMatch(match.copy());
+        
+        copy.setPageLimitTriggered(limitTriggered);
+        copy.setAborted(aborted);
+        copy.setStopped(stopped);
+        copy.restorePageCounts(fetchedPageCount(), unfetchedPageCount());
+        return copy;
+    }
+    
+    /**
+     * Returns the link to the first result page of the search.
+     * 
+     * @return link to the first result page, or <code>null</code> if unknown
+     */
+    WebLink startLink() {
+        synchronized (resultPages) {
+            return resultPages.isEmpty() ? null : resultPages.get(0);
+        }
     }
     
     /**
@@ -89,9 +228,11 @@ public class SearchResult {
      *          are no further result pages
      */
     WebLink nextPage() {
-        return nextPage < resultPages.size()
-                ? resultPages.get(nextPage)
-                : null;
+        synchronized (resultPages) {
+            return nextPage < resultPages.size()
+                    ? resultPages.get(nextPage)
+                    : null;
+        }
     }
     
     /**
@@ -102,22 +243,21 @@ public class SearchResult {
      *          abridged file matches
      */
     FileMatch nextAbridgedFile() {
-        while (nextAbridged < matches.size() && !matches.get(nextAbridged).abridged())
-            nextAbridged++;
+        FileMatch head;
+        while ((head = abridgedQueue.peek()) != null && !head.abridged())
+            abridgedQueue.remove(head);
         
-        return nextAbridged < matches.size()
-                ? matches.get(nextAbridged)
-                : null;
+        return head;
     }
     
     void notifyFetched(ResultPage page) {
-        nextPage++;
-
-        /* Merge new links to result pages into our existing list of result pages to be visited.
-         * Because we'll get many links multiple times, this method makes sure we only add pages
-         * that are not yet on the list. */
-        
-        mergePages:
+        synchronized (resultPages) {
+            nextPage++;
+            
+            /* Merge new links to result pages into our existing list of result pages to be visited.
+             * Because we'll get many links multiple times, this method makes sure we only add pages
+             * that are not yet on the list. */
+            
             for (WebLink newLink : page.pageLinks) {
                 
                 /* On the first result pages (the first 10 or so) we'll find a link to the
@@ -128,12 +268,13 @@ public class SearchResult {
                 if (urlstr.contains("start=0&") || urlstr.endsWith("&start=0"))
                     continue;
                 
-                for (WebLink oldLink : resultPages)
-                    if (newLink.url.equals(oldLink.url))
-                        continue mergePages;
+                /* Compare the external forms rather than the URLs themselves; URL.equals()
+                 * may resolve host names, and we already have the string anyway. */
                 
-                resultPages.add(newLink);
+                if (pageURLs.add(urlstr))
+                    resultPages.add(newLink);
             }
+        }
     }
     
     /**
@@ -147,29 +288,57 @@ public class SearchResult {
      * value is therefore always the file match object that represents the file in this
      * search result instance in the future.
      * 
+     * <p>This method may be called by several threads concurrently.
+     * 
      * @param match a new line match to be added to the search result
-     * @return the new or merged file match 
+     * @return the new or merged file match
      */
     FileMatch mergeFileMatch(FileMatch match) {
-        for (FileMatch existing : matches)
-            if (existing.getFullName().equals(match.getFullName())) {
-                lineCount += existing.merge(match);
+        synchronized (stripeFor(match)) {
+            FileMatch existing = matchIndex.get(match.getFullName());
+            if (existing != null) {
+                boolean wasAbridged = existing.abridged();
+                lineCount.addAndGet(existing.merge(match));
+                if (wasAbridged && !existing.abridged())
+                    abridgedCount.decrementAndGet();
                 return existing;
             }
-        
-        matches.add(match);
-        dirNames.add(match.getDirectory());
-        lineCount += match.getLines().size();
-        
-        return match;
+            
+            if (lineStore != null)
+                match.spillTo(lineStore);
+            
+            matchIndex.put(match.getFullName(), match);
+            synchronized (matches) {
+                matches.add(match);
+            }
+            dirNames.add(match.getDirectory());
+            fileCount.incrementAndGet();
+            lineCount.addAndGet(match.lineCount());
+            
+            if (match.abridged()) {
+                abridgedCount.incrementAndGet();
+                abridgedQueue.add(match);
+            }
+            
+            return match;
+        }
     }
     
     void mergeLines(FileMatch fileMatch, Collection<LineMatch> lines) {
-        for (LineMatch line : lines) {
-            if (fileMatch.addLine(line))
-                lineCount++;
+        synchronized (stripeFor(fileMatch)) {
+            lineCount.addAndGet(fileMatch.addLines(lines));
+            
+            if (fileMatch.abridged()) {
+                fileMatch.setUnabridged();
+                abridgedCount.decrementAndGet();
+            }
         }
-        fileMatch.setUnabridged();
+    }
+    
+    private Object stripeFor(FileMatch match) {
+        int h = match.getFullName().hashCode();
+        h ^= h >>> 16;
+        return stripes[h & STRIPES - 1];
     }
     
     void setPageLimitTriggered(boolean limitTriggered) {
@@ -180,4 +349,8 @@ public class SearchResult {
         this.aborted = aborted;
     }
     
+    void setStopped(boolean stopped) {
+        this.stopped = stopped;
+    }
+    
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import de.bastisoft.ogre.event.ProgressListener.Phase;
+
+/**
+ * Timing and throughput of a running search, as of the completion of one of its requests.
+ * Rates are averages over the time since the search started, including the time spent
+ * processing responses.
+ * @see de.bastisoft.ogre.event.TelemetryListener
+ */
+public class SearchTelemetry {
+
+    private Phase phase;
+    private String url;
+    private long latencyMillis;
+    private long requestMillis;
+    private int requestBytes;
+    private int requestCount;
+    private long totalBytes;
+    private long elapsedMillis;
+    private int pageCount;
+    private int lineCount;
+    private int pendingRequests;
+    
+    SearchTelemetry(Phase phase, String url, long latencyMillis, long requestMillis, int requestBytes,
+            int requestCount, long totalBytes, long elapsedMillis, int pageCount, int lineCount, int pendingRequests) {
+        this.phase = phase;
+        this.url = url;
+        this.latencyMillis = latencyMillis;
+        this.requestMillis = requestMillis;
+        this.requestBytes = requestBytes;
+        this.requestCount = requestCount;
+        this.totalBytes = totalBytes;
+        this.elapsedMillis = elapsedMillis;
+        this.pageCount = pageCount;
+        this.lineCount = lineCount;
+        this.pendingRequests = pendingRequests;
+    }
+    
+    /**
+     * Returns the phase the request belonged to: a result page, or a page with additional
+     * line matches.
+     * 
+     * @return the phase of the request
+     */
+    public Phase getPhase() {
+        return phase;
+    }
+    
+    public String getURL() {
+        return url;
+    }
+    
+    /**
+     * Returns the time from sending the request to receiving the response headers.
+     * 
+     * @return latency of the request in milliseconds
+     */
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+    
+    /**
+     * Returns the time from sending the request to receiving the complete response.
+     * 
+     * @return duration of the request in milliseconds
+     */
+    public long getRequestMillis() {
+        return requestMillis;
+    }
+    
+    public int getRequestBytes() {
+        return requestBytes;
+    }
+    
+    public int getRequestCount() {
+        return requestCount;
+    }
+    
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+    
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+    
+    /**
+     * Returns the number of result pages fetched so far, not counting pages with additional
+     * line matches.
+     * 
+     * @return number of result pages
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+    
+    public int getLineCount() {
+        return lineCount;
+    }
+    
+    /**
+     * Returns the number of requests that are still to be made, as far as known. Result
+     * pages beyond the page limit are not counted; files found on pages that have not been
+     * fetched yet cannot be.
+     * 
+     * @return number of pending requests
+     */
+    public int getPendingRequests() {
+        return pendingRequests;
+    }
+    
+    public double getPagesPerSecond() {
+        return perSecond(pageCount);
+    }
+    
+    public double getLinesPerSecond() {
+        return perSecond(lineCount);
+    }
+    
+    public double getBytesPerSecond() {
+        return perSecond(totalBytes);
+    }
+    
+    private double perSecond(long count) {
+        return elapsedMillis > 0 ? count * 1000.0 / elapsedMillis : 0;
+    }
+    
+    /**
+     * Estimates the time until the search is complete from the number of pending requests
+     * and the average time per request so far.
+     * 
+     * @return estimated remaining time in milliseconds
+     */
+    public long getEstimatedMillisRemaining() {
+        return requestCount > 0 ? elapsedMillis * pendingRequests / requestCount : 0;
+    }
+    
+}
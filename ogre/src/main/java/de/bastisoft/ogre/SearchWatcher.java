@@ -0,0 +1,347 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import de.bastisoft.ogre.ResultDelta.FileChange;
+import de.bastisoft.ogre.event.ProgressListener;
+import de.bastisoft.ogre.event.WatchListener;
+
+/**
+ * Places the same search repeatedly and reports what has changed between runs.
+ * 
+ * <p>The watcher gives the scraper a {@link PageCache}, so result pages that come back
+ * unchanged are not parsed again. The results of consecutive runs are compared file by
+ * file and line by line, and listeners are only notified if there is a difference.
+ * 
+ * <p>Each run is compared with the files of the last complete run, updated with the files
+ * found by incomplete runs since then. A run is incomplete if it was aborted, stopped, or
+ * ended by the page limit; files it did not get to are not reported as removed, and they
+ * stay in the comparison, so they are not reported as added when they are found again.
+ * 
+ * <p>The watcher keeps the results whose files are compared with the next run, and closes
+ * the others. If the scraper writes line matches to a spill file, the line matches of file
+ * matches reported by the watcher can therefore only be read until a later run has replaced
+ * them.
+ * 
+ * <p>Runs never overlap, whether they are started in the background or by calling
+ * {@link #runOnce}. The scraper should not be used for other searches while it is being
+ * watched.
+ */
+public class SearchWatcher {
+
+    private final Scraper scraper;
+    private final String query, defs, refs, path, hist, project;
+    private final PageCache pageCache;
+    private final Collection<WatchListener> listeners;
+    
+    // Held while a search runs, the scraper cannot run two at once
+    private final Object runLock = new Object();
+    private volatile boolean halted;
+    
+    // Guarded by this; the baseline maps file names to the matches that runs are compared with
+    private SearchResult current;
+    private Map<String, FileMatch> baseline;
+    private Map<String, SearchResult> owners;
+    private List<SearchResult> openResults;
+    private ScheduledExecutorService executor;
+    
+    /**
+     * Creates a watcher for a search. The arguments are the same as for
+     * {@link Scraper#search}.
+     * 
+     * @param scraper the scraper to place the search with
+     * @param query search terms for the OpenGrok "Full Search" field
+     * @param defs search terms for the OpenGrok "Definition" field
+     * @param refs search terms for the OpenGrok "Symbol" field
+     * @param path search terms for the OpenGrok "File Path" field
+     * @param hist search terms for the OpenGrok "History" field
+     * @param project the project(s) to search for multi-project OpenGrok servers
+     */
+    public SearchWatcher(Scraper scraper, String query, String defs, String refs, String path, String hist, String project) {
+        this.scraper = scraper;
+        this.query = query;
+        this.defs = defs;
+        this.refs = refs;
+        this.path = path;
+        this.hist = hist;
+        this.project = project;
+        
+        pageCache = new PageCache();
+        scraper.setPageCache(pageCache);
+        listeners = new CopyOnWriteArrayList<>();
+        baseline = new HashMap<>();
+        owners = new HashMap<>();
+        openResults = new ArrayList<>();
+        
+        /* Scraper.search() clears an abort that arrives before the search has started, so
+         * the abort is repeated once the search is under way. */
+        scraper.addProgressListener(new ProgressListener() {
+            @Override
+            public void progress(Phase phase, int current, int pending) {
+                if (halted)
+                    SearchWatcher.this.scraper.abort();
+            }
+            
+            @Override
+            public void currentCounts(int dirCount, int fileCount, int lineCount) {}
+        });
+    }
+    
+    public void addWatchListener(WatchListener listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Returns the page cache used by the scraper, which counts how many pages did not have
+     * to be parsed again.
+     * 
+     * @return the page cache
+     */
+    public PageCache getPageCache() {
+        return pageCache;
+    }
+    
+    /**
+     * Returns the result of the last successful run.
+     * 
+     * @return the search result, or <code>null</code> if there has not been a successful run
+     */
+    public synchronized SearchResult latestResult() {
+        return current;
+    }
+    
+    /**
+     * Starts running the search in the background, the first time right away and then
+     * with a fixed delay between the end of one run and the start of the next. Errors are
+     * reported to the listeners.
+     * 
+     * @param period the delay between runs
+     * @param unit the unit of the delay
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (executor != null)
+            throw new IllegalStateException("Watcher is already running");
+        
+        halted = false;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ogre-watch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runOnce();
+                }
+                catch (ScraperException e) {
+                    for (WatchListener listener : listeners)
+                        listener.searchFailed(e);
+                }
+            }
+        }, 0, period, unit);
+    }
+    
+    /**
+     * Stops running the search in the background. A run that is in progress is aborted, and
+     * its result is discarded.
+     */
+    public void stop() {
+        ScheduledExecutorService stopped;
+        synchronized (this) {
+            stopped = executor;
+            executor = null;
+        }
+        
+        if (stopped != null) {
+            halted = true;
+            stopped.shutdownNow();
+            scraper.abort();
+        }
+    }
+    
+    /**
+     * Runs the search once and notifies the listeners if the results have changed. If a
+     * run is already in progress, this method waits for it to end first.
+     * 
+     * <p>After the watcher has been stopped, this method does nothing until it is started
+     * again, and returns an empty delta.
+     * 
+     * @return the changes since the last run
+     * @throws ScraperException if the search fails
+     */
+    public ResultDelta runOnce() throws ScraperException {
+        ResultDelta delta;
+        List<SearchResult> released;
+        
+        synchronized (runLock) {
+            if (halted)
+                return emptyDelta();
+            
+            SearchResult result = scraper.search(query, defs, refs, path, hist, project);
+            if (halted) {
+                close(result);
+                return emptyDelta();
+            }
+            
+            synchronized (this) {
+                Map<String, FileMatch> files = new HashMap<>();
+                for (FileMatch match : result.files())
+                    files.put(match.getFullName(), match);
+                
+                boolean complete = !result.pageLimitTriggered() && !result.aborted() && !result.stopped();
+                delta = compare(baseline, files, complete);
+                
+                if (complete) {
+                    baseline = files;
+                    owners.clear();
+                }
+                else
+                    baseline.putAll(files);
+                for (String name : files.keySet())
+                    owners.put(name, result);
+                
+                current = result;
+                openResults.add(result);
+                released = releaseUnused();
+            }
+        }
+        
+        if (!delta.isEmpty())
+            for (WatchListener listener : listeners)
+                listener.resultChanged(delta);
+        
+        for (SearchResult result : released)
+            close(result);
+        
+        return delta;
+    }
+    
+    /**
+     * Removes the results from the list of open results that neither are the latest nor
+     * own any file match of the baseline.
+     */
+    private List<SearchResult> releaseUnused() {
+        Map<SearchResult, Boolean> used = new IdentityHashMap<>();
+        used.put(current, true);
+        for (SearchResult owner : owners.values())
+            used.put(owner, true);
+        
+        List<SearchResult> released = new ArrayList<>();
+        for (Iterator<SearchResult> i = openResults.iterator(); i.hasNext(); ) {
+            SearchResult result = i.next();
+            if (!used.containsKey(result)) {
+                released.add(result);
+                i.remove();
+            }
+        }
+        return released;
+    }
+    
+    private static void close(SearchResult result) {
+        try {
+            result.close();
+        }
+        catch (IOException e) {
+            // Only a temporary file is left behind, which is removed on exit anyway
+        }
+    }
+    
+    private static ResultDelta emptyDelta() {
+        return new ResultDelta(new ArrayList<FileMatch>(), new ArrayList<FileMatch>(), new ArrayList<FileChange>());
+    }
+    
+    private static ResultDelta compare(Map<String, FileMatch> before, Map<String, FileMatch> after, boolean complete) {
+        List<FileMatch> added = new ArrayList<>();
+        List<FileMatch> removed = new ArrayList<>();
+        List<FileChange> changed = new ArrayList<>();
+        
+        for (FileMatch match : after.values()) {
+            FileMatch previous = before.get(match.getFullName());
+            if (previous == null)
+                added.add(match);
+            else {
+                FileChange change = compare(previous, match);
+                if (change != null)
+                    changed.add(change);
+            }
+        }
+        
+        if (complete)
+            for (FileMatch match : before.values())
+                if (!after.containsKey(match.getFullName()))
+                    removed.add(match);
+        
+        return new ResultDelta(added, removed, changed);
+    }
+    
+    /**
+     * Compares the line matches of a file in two runs. If the newer file match is abridged,
+     * lines missing from it may just not have been fetched, and are not reported as removed.
+     */
+    private static FileChange compare(FileMatch before, FileMatch after) {
+        List<LineMatch> oldLines = before.getLines();
+        List<LineMatch> newLines = after.getLines();
+        
+        Set<String> oldKeys = keys(oldLines);
+        Set<String> newKeys = keys(newLines);
+        
+        List<LineMatch> added = new ArrayList<>();
+        for (LineMatch line : newLines)
+            if (!oldKeys.contains(key(line)))
+                added.add(line);
+        
+        List<LineMatch> removed = new ArrayList<>();
+        if (!after.abridged())
+            for (LineMatch line : oldLines)
+                if (!newKeys.contains(key(line)))
+                    removed.add(line);
+        
+        return added.isEmpty() && removed.isEmpty() ? null : new FileChange(after, added, removed);
+    }
+    
+    private static Set<String> keys(List<LineMatch> lines) {
+        Set<String> keys = new HashSet<>(lines.size() * 2);
+        for (LineMatch line : lines)
+            keys.add(key(line));
+        return keys;
+    }
+    
+    private static String key(LineMatch line) {
+        return line.getLineNumber() + ":" + line.getLine();
+    }
+    
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.bastisoft.ogre;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A line store backed by an append-only temporary file that is memory-mapped in segments.
+ * Blocks never span segments, so a block can always be decoded from a single buffer. A
+ * block address holds the segment number in the upper and the offset within the segment
+ * in the lower 32 bits.
+ * 
+ * <p>Writing is synchronized; reading works on duplicates of the mapped buffers and needs
+ * no lock.
+ */
+class SpillFile implements LineStore, Closeable {
+
+    private static final int SEGMENT_SIZE = 64 << 20;
+    
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    
+    /* Only ever appended to; readers may see a stale list, but never one without their
+     * segment. Closing replaces it by an empty list after setting the closed flag, so a
+     * reader that sees the empty list also sees the flag. */
+    private volatile List<MappedByteBuffer> segments;
+    private long fileSize;
+    private int writePosition;
+    private volatile boolean closed;
+    
+    /**
+     * Creates a new spill file in a directory. The file is removed when the store is closed.
+     * 
+     * @param directory directory for the file, or <code>null</code> for the default
+     *          temporary directory
+     * @throws IOException if the file cannot be created
+     */
+    SpillFile(File directory) throws IOException {
+        file = File.createTempFile("ogre", ".spill", directory);
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        segments = new ArrayList<>();
+    }
+    
+    @Override
+    public long write(LineMatch[] lines, WebLink xrefLink) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * lines.length + 16);
+        LineCodec.encode(lines, xrefLink, out);
+        byte[] block = out.toByteArray();
+        
+        synchronized (this) {
+            if (closed)
+                throw new IllegalStateException("Spill file has been closed");
+            
+            List<MappedByteBuffer> current = segments;
+            if (current.isEmpty() || writePosition + block.length > current.get(current.size() - 1).capacity())
+                current = addSegment(block.length);
+            
+            int segment = current.size() - 1;
+            ByteBuffer buffer = current.get(segment).duplicate();
+            buffer.position(writePosition);
+            buffer.put(block);
+            
+            long address = (long) segment << 32 | writePosition;
+            writePosition += block.length;
+            return address;
+        }
+    }
+    
+    private List<MappedByteBuffer> addSegment(int minimumSize) {
+        /* Oversized blocks get a segment of their own. The list is copied so that readers
+         * can keep using the one they have without synchronization. */
+        
+        int size = Math.max(SEGMENT_SIZE, minimumSize);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, fileSize, size);
+            List<MappedByteBuffer> updated = new ArrayList<>(segments);
+            updated.add(buffer);
+            segments = updated;
+            fileSize += size;
+            writePosition = 0;
+            return updated;
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Could not extend spill file " + file + ": " + e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public LineMatch[] read(long address, WebLink xrefLink) {
+        List<MappedByteBuffer> current = segments;
+        if (closed)
+            throw new IllegalStateException("Spill file has been closed");
+        
+        ByteBuffer buffer = current.get((int) (address >>> 32)).duplicate();
+        buffer.position((int) address);
+        return LineCodec.decode(buffer, xrefLink);
+    }
+    
+    /**
+     * Closes and deletes the file. The mapped segments are released by the garbage collector;
+     * on some platforms the file can only be deleted after that, in which case it is left to
+     * be deleted when the VM exits.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        
+        closed = true;
+        segments = new ArrayList<>();
+        try {
+            channel.close();
+            raf.close();
+        }
+        finally {
+            if (!file.delete())
+                file.deleteOnExit();
+        }
+    }
+    
+}
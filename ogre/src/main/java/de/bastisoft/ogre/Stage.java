@@ -0,0 +1,39 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+/**
+ * The stages that the processing of a response goes through.
+ * @see Instrumentation
+ */
+public enum Stage {
+
+    /** Sending a request and receiving the complete response. */
+    NETWORK,
+    
+    /** Repairing the XHTML of a response so that it can be parsed as XML. */
+    REPAIR,
+    
+    /** Building the DOM tree of a response. */
+    DOM,
+    
+    /** Extracting files and line matches from the DOM tree, mostly with XPath. */
+    XPATH,
+    
+    /** Merging the extracted files and line matches into the search result. */
+    MERGE
+    
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+/**
+ * Ends a search early once it has found what it was looking for. Stop conditions are
+ * checked whenever a file match has been added to the search result or amended with more
+ * line matches, and the scraper places no further requests once one is satisfied.
+ * 
+ * <p>Custom conditions, such as looking for a file in a particular directory, are written
+ * by extending this class. Conditions are checked on the thread that runs the search.
+ * @see Scraper#addStopCondition
+ */
+public abstract class StopCondition {
+
+    /**
+     * Decides whether the search can stop.
+     * 
+     * @param result the search result so far
+     * @param match the file match that has just been added or amended
+     * @return <code>true</code> if no more results are needed
+     */
+    public abstract boolean satisfied(SearchResult result, FileMatch match);
+    
+    /**
+     * Returns a condition that stops the search once a number of files have been found.
+     * No more files than that are added to the result; files with more line matches to
+     * fetch will remain abridged.
+     * 
+     * @param limit the number of files
+     * @return the stop condition
+     */
+    public static StopCondition maxFiles(final int limit) {
+        return new StopCondition() {
+            @Override
+            public boolean satisfied(SearchResult result, FileMatch match) {
+                return result.fileCount() >= limit;
+            }
+        };
+    }
+    
+    /**
+     * Returns a condition that stops the search once a number of line matches have been
+     * found. Since line matches are added file by file, the result may contain more than
+     * that.
+     * 
+     * @param limit the number of line matches
+     * @return the stop condition
+     */
+    public static StopCondition maxLines(final int limit) {
+        return new StopCondition() {
+            @Override
+            public boolean satisfied(SearchResult result, FileMatch match) {
+                return result.lineCount() >= limit;
+            }
+        };
+    }
+    
+}
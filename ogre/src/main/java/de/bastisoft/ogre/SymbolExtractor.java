@@ -0,0 +1,40 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.util.Collection;
+
+/**
+ * Tells a {@link ReferenceCrawler} where to go next from a line match. OpenGrok results
+ * only contain the matching lines, so finding the function that encloses a reference, for
+ * instance, needs knowledge of the source language or another look at the file, which is
+ * up to the implementation.
+ * 
+ * <p>Implementations are called from several threads at once.
+ */
+public interface SymbolExtractor {
+
+    /**
+     * Returns the symbols that a line match found in a search for a symbol leads to.
+     * 
+     * @param symbol the symbol that was searched for
+     * @param file the file in which the line was found
+     * @param line the line match
+     * @return the symbols to search for next; may be empty but not <code>null</code>
+     */
+    Collection<String> symbols(String symbol, FileMatch file, LineMatch line);
+    
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.bastisoft.ogre.LineMatch.Highlight;
+
+/**
+ * Looks up many symbols with few searches. The symbols are combined into OR queries that
+ * are as long as the server accepts, and the line matches of every search are assigned to
+ * the symbols by their highlighted parts.
+ * 
+ * <p>A line match is assigned to every symbol that is highlighted in it; symbols are first
+ * compared exactly and then ignoring case. Symbols that contain other characters than
+ * letters, digits and underscores are searched as phrases, whose words the server
+ * highlights one by one, so runs of adjacent highlights are compared as well. If a match
+ * cannot be assigned this way, every symbol that may own it is looked up again with a
+ * search of its own, whose result replaces the assigned matches, so that no match is left
+ * out. These are the symbols that contain one of the highlighted words of the line, or all
+ * symbols of the search if there is no such word. Searches for many symbols at once return many
+ * results, so the page limit of the scraper should be raised accordingly; if a search hits
+ * the page limit, the results of all symbols in it are marked accordingly.
+ * 
+ * <p>The matches can only be assigned by their line matches, so the scraper must use the
+ * projection {@link Projection#FULL}.
+ * 
+ * <p>Searches are placed one after another with the scraper given to the constructor, and
+ * its listeners and receivers see the combined searches.
+ */
+public class SymbolLookup {
+
+    public enum Field { FULL, DEFS, REFS }
+    
+    private static final String OR = " OR ";
+    
+    private final Scraper scraper;
+    private Field field;
+    private String path;
+    private String project;
+    private int maxRequestLength;
+    
+    public SymbolLookup(Scraper scraper) {
+        this.scraper = scraper;
+        field = Field.REFS;
+        maxRequestLength = 2000;
+    }
+    
+    /**
+     * Sets the search field the symbols are looked up in. The default is the "Symbol"
+     * field.
+     * 
+     * @param field the search field
+     */
+    public void setField(Field field) {
+        this.field = field;
+    }
+    
+    /**
+     * Restricts the searches to paths and projects, as in {@link Scraper#search}.
+     * 
+     * @param path search terms for the OpenGrok "File Path" field, or <code>null</code>
+     * @param project the project(s) to search, or <code>null</code>
+     */
+    public void setScope(String path, String project) {
+        this.path = path;
+        this.project = project;
+    }
+    
+    /**
+     * Sets the maximum length of the request URLs of the combined searches, including the
+     * base URL of the scraper and all query parameters. The default of 2000 characters is
+     * what servers and proxies commonly accept.
+     * 
+     * @param length maximum request URL length
+     */
+    public void setMaxRequestLength(int length) {
+        maxRequestLength = length;
+    }
+    
+    /**
+     * Looks up symbols.
+     * 
+     * @param symbols the symbols
+     * @return a search result for every symbol, in the order in which they were given;
+     *          symbols that were not found have empty results
+     * @throws ScraperException if one of the searches fails
+     * @throws IllegalStateException if the scraper does not use the projection
+     *          {@link Projection#FULL}
+     */
+    public Map<String, SearchResult> lookup(Collection<String> symbols) throws ScraperException {
+        if (scraper.projection() != Projection.FULL)
+            throw new IllegalStateException("Symbol lookup needs line matches, but the scraper uses projection " + scraper.projection());
+        
+        Map<String, SearchResult> results = new LinkedHashMap<>();
+        for (String symbol : new LinkedHashSet<>(symbols))
+            results.put(symbol, new SearchResult(null, null));
+        
+        boolean complete = false;
+        try {
+            for (List<String> batch : batches(results.keySet()))
+                lookup(batch, results);
+            complete = true;
+        }
+        finally {
+            if (!complete)
+                for (SearchResult result : results.values())
+                    close(result);
+        }
+        
+        return results;
+    }
+    
+    private void lookup(List<String> batch, Map<String, SearchResult> results) throws ScraperException {
+        SearchResult combined = scraper.search(query(batch));
+        if (batch.size() == 1) {
+            // All matches belong to the one symbol
+            results.put(batch.get(0), combined);
+            return;
+        }
+        
+        Set<String> owners;
+        try {
+            owners = demultiplex(combined, batch, results);
+        }
+        finally {
+            close(combined);
+        }
+        
+        for (String symbol : batch)
+            if (owners.contains(symbol))
+                results.put(symbol, scraper.search(query(Collections.singletonList(symbol))));
+    }
+    
+    private Query query(List<String> batch) {
+        StringBuilder query = new StringBuilder();
+        for (String symbol : batch)
+            query.append(query.length() > 0 ? OR : "").append(term(symbol));
+        
+        return new Query(
+                field == Field.FULL ? query.toString() : null,
+                field == Field.DEFS ? query.toString() : null,
+                field == Field.REFS ? query.toString() : null,
+                path, null, project);
+    }
+    
+    /**
+     * Splits the symbols into groups whose combined searches do not exceed the maximum
+     * request length. A symbol that is too long by itself gets a search of its own.
+     */
+    List<List<String>> batches(Collection<String> symbols) {
+        List<List<String>> batches = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        int length = 0;
+        int orLength = encodedLength(OR);
+        
+        // URL encoding works character by character, so the request length is the length
+        // of a request with a one-character query plus the encoded length of the query
+        int fixedLength = scraper.requestLength(query(Collections.singletonList("x"))) - 1;
+        
+        for (String symbol : symbols) {
+            int termLength = encodedLength(term(symbol));
+            if (!batch.isEmpty() && fixedLength + length + orLength + termLength > maxRequestLength) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                length = 0;
+            }
+            length += (batch.isEmpty() ? 0 : orLength) + termLength;
+            batch.add(symbol);
+        }
+        
+        if (!batch.isEmpty())
+            batches.add(batch);
+        return batches;
+    }
+    
+    /**
+     * Quotes a symbol unless it consists only of letters, digits and underscores, so that
+     * characters with a meaning in the query syntax are taken literally.
+     */
+    private static String term(String symbol) {
+        boolean plain = symbol.length() > 0;
+        for (int i = 0; i < symbol.length() && plain; i++)
+            plain = Character.isLetterOrDigit(symbol.charAt(i)) || symbol.charAt(i) == '_';
+        if (plain && !symbol.equals("AND") && !symbol.equals("OR") && !symbol.equals("NOT"))
+            return symbol;
+        return "\"" + symbol.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+    
+    private static int encodedLength(String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8").length();
+        }
+        catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Assigns the matches of a combined search to the symbols.
+     * 
+     * @return the symbols that may own matches which could not be assigned
+     */
+    private static Set<String> demultiplex(SearchResult combined, List<String> batch, Map<String, SearchResult> results) {
+        Map<String, String> exact = new HashMap<>();
+        Map<String, String> lowerCase = new HashMap<>();
+        Map<String, Set<String>> byWord = new HashMap<>();
+        int maxLength = 0;
+        for (String symbol : batch) {
+            exact.put(symbol, symbol);
+            if (!lowerCase.containsKey(symbol.toLowerCase()))
+                lowerCase.put(symbol.toLowerCase(), symbol);
+            maxLength = Math.max(maxLength, symbol.length());
+            
+            for (String word : symbol.toLowerCase().split("[^\\p{L}\\p{N}_]+")) {
+                Set<String> symbols = byWord.get(word);
+                if (symbols == null)
+                    byWord.put(word, symbols = new HashSet<>());
+                symbols.add(symbol);
+            }
+        }
+        
+        Set<String> owners = new HashSet<>();
+        for (FileMatch match : combined.files()) {
+            Map<String, List<LineMatch>> bySymbol = new HashMap<>();
+            if (match.getLines().isEmpty())
+                // Nothing to tell the symbols apart by
+                owners.addAll(batch);
+            
+            for (LineMatch line : match.getLines()) {
+                List<Highlight> highlights = line.getHighlights();
+                boolean lineAssigned = false;
+                
+                for (int i = 0; i < highlights.size(); i++) {
+                    int start = highlights.get(i).getStart();
+                    for (int j = i; j < highlights.size(); j++) {
+                        int end = highlights.get(j).getEnd();
+                        if (end < start || end - start > maxLength)
+                            break;
+                        
+                        String text = line.getLine().substring(start, end);
+                        String symbol = exact.get(text);
+                        if (symbol == null)
+                            symbol = lowerCase.get(text.toLowerCase());
+                        if (symbol == null)
+                            continue;
+                        
+                        List<LineMatch> lines = bySymbol.get(symbol);
+                        if (lines == null)
+                            bySymbol.put(symbol, lines = new ArrayList<>());
+                        if (lines.isEmpty() || lines.get(lines.size() - 1) != line)
+                            lines.add(line);
+                        lineAssigned = true;
+                    }
+                }
+                
+                if (!lineAssigned) {
+                    boolean owned = false;
+                    for (Highlight h : highlights) {
+                        Set<String> symbols = byWord.get(line.getLine().substring(h.getStart(), h.getEnd()).toLowerCase());
+                        if (symbols != null) {
+                            owners.addAll(symbols);
+                            owned = true;
+                        }
+                    }
+                    if (!owned)
+                        // Nothing to tell the symbols apart by
+                        owners.addAll(batch);
+                }
+            }
+            
+            for (Map.Entry<String, List<LineMatch>> entry : bySymbol.entrySet()) {
+                FileMatch symbolMatch = new FileMatch(match.getDirectory(), match.getFilename(), match.getXrefLink());
+                symbolMatch.addLines(entry.getValue());
+                if (match.abridged())
+                    symbolMatch.setAbridged(match.getMoreLink());
+                results.get(entry.getKey()).mergeFileMatch(symbolMatch);
+            }
+        }
+        
+        for (String symbol : batch) {
+            SearchResult result = results.get(symbol);
+            result.setPageLimitTriggered(combined.pageLimitTriggered());
+            result.setAborted(combined.aborted());
+            result.setStopped(combined.stopped());
+        }
+        
+        return owners;
+    }
+    
+    private static void close(SearchResult result) {
+        try {
+            result.close();
+        }
+        catch (IOException e) {
+            // Only a temporary file is left behind, which is removed on exit anyway
+        }
+    }
+    
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Carries out the HTTP requests of a scraper. The default is {@link HttpTransport}; other
+ * transports can record the traffic ({@link de.bastisoft.ogre.trace.TraceRecorder}) or
+ * serve recorded traffic ({@link de.bastisoft.ogre.trace.TraceReplay}).
+ * 
+ * <p>A transport may be used by several scrapers at the same time and must be thread-safe.
+ * 
+ * @see Scraper#setTransport
+ */
+public interface Transport {
+
+    /**
+     * The response to a request. The body must be read before the response is closed.
+     */
+    public interface Response extends Closeable {
+        
+        /**
+         * Returns the URL the response came from, after redirects have been followed.
+         * 
+         * @return the URL
+         */
+        URL getURL();
+        
+        /**
+         * Returns the HTTP status code.
+         * 
+         * @return the status code
+         */
+        int getStatus();
+        
+        /**
+         * Returns the response headers.
+         * 
+         * @return the header values by header name
+         */
+        Map<String, List<String>> getHeaders();
+        
+        /**
+         * Returns the response body.
+         * 
+         * @return the body
+         * @throws IOException if the body cannot be read
+         */
+        InputStream getBody() throws IOException;
+        
+    }
+    
+    /**
+     * Sends a GET request and returns once the response headers have been received.
+     * Redirects are followed. Responses with an error status are reported as
+     * {@link HttpStatusException}s.
+     * 
+     * @param url the URL
+     * @param headers request headers
+     * @param proxy the proxy to go through
+     * @return the response
+     * @throws IOException if the request failed
+     */
+    Response get(URL url, Map<String, String> headers, Proxy proxy) throws IOException;
+    
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.event;
+
+/**
+ * Follows what scrapers are doing, from all scrapers in the VM, for tracing and profiling
+ * tools. Unlike the other listeners, activity listeners are told when an activity starts,
+ * on the thread that performs it, so that they can measure it themselves.
+ * 
+ * <p>Activities are properly nested on each thread: a search contains page and "more"
+ * fetches, a fetch contains a parse, and a parse contains a repair pass. Every call to
+ * {@link #activityStarted} is followed by a call to {@link #activityFinished} on the same
+ * thread for the same kind, also when the activity fails; listeners added or removed in
+ * between only see complete activities.
+ * 
+ * @see de.bastisoft.ogre.Instrumentation
+ */
+public interface ActivityListener {
+
+    public enum Kind {
+        
+        /** A search, from the first to the last request. */
+        SEARCH,
+        
+        /** Downloading and parsing a result page. */
+        PAGE_FETCH,
+        
+        /** Downloading and parsing the full list of line matches for a file. */
+        MORE_FETCH,
+        
+        /** Parsing a response into file and line matches. */
+        PARSE,
+        
+        /** Repairing the XHTML of a response so that it can be parsed as XML. */
+        REPAIR
+        
+    }
+    
+    /**
+     * Called when an activity starts.
+     * 
+     * @param kind the activity
+     */
+    void activityStarted(Kind kind);
+    
+    /**
+     * Called when an activity has finished, successfully or not. Figures that were not
+     * determined because the activity failed are 0.
+     * 
+     * @param kind the activity
+     * @param url the URL of the search or the response
+     * @param bytes the size of the responses; for a repair pass, the number of characters
+     * @param files the number of files found; 0 for a repair pass
+     * @param lines the number of line matches found; 0 for a repair pass
+     */
+    void activityFinished(Kind kind, String url, long bytes, int files, int lines);
+    
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.event;
+
+import java.util.Collection;
+
+import de.bastisoft.ogre.FileMatch;
+
+/**
+ * Receives preliminary results during the course of an ongoing query in batches, rather
+ * than one event at a time. See {@link BatchingReceiver}.
+ */
+public interface BatchReceiver {
+
+    /**
+     * Called with the results that have come in since the last call. A file match is in
+     * at most one of the two collections; if it was found and amended since the last call,
+     * it is only among the new matches, with the amended line matches.
+     * 
+     * @param newMatches new file matches, possibly empty
+     * @param amendedMatches file matches reported earlier that have been amended with
+     *          additional line matches, possibly empty
+     */
+    void newResults(Collection<FileMatch> newMatches, Collection<FileMatch> amendedMatches);
+    
+}
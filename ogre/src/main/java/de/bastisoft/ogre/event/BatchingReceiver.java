@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.event;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+
+import de.bastisoft.ogre.FileMatch;
+import de.bastisoft.ogre.util.Scheduler;
+
+/**
+ * Collects the events of a result receiver and passes them on to a {@link BatchReceiver}
+ * in batches. A batch is delivered when it has reached a maximum size, when a time window
+ * has passed since its first event, or when {@link #flush} is called. Amendments to the
+ * same file match within a batch are reported once.
+ * 
+ * <p>Batches are delivered one at a time and in order, either on the thread that reports
+ * the results or on a timer thread that is shared by all batching receivers. Scrapers
+ * that a batching receiver is registered with through
+ * {@link de.bastisoft.ogre.Scraper#addBatchReceiver} flush it at the end of every search.
+ */
+public class BatchingReceiver implements ResultReceiver {
+
+    private final BatchReceiver target;
+    private final long window;
+    private final int maxBatch;
+    private final Object deliveryLock = new Object();
+    
+    // Guarded by this
+    private Set<FileMatch> newMatches;
+    private Set<FileMatch> amendedMatches;
+    private ScheduledFuture<?> scheduledFlush;
+    
+    /**
+     * Creates a batching receiver.
+     * 
+     * @param target the receiver of the batches
+     * @param window maximum milliseconds between the first event of a batch and its
+     *          delivery; 0 or less means that batches are only delivered when they are full
+     *          or flushed
+     * @param maxBatch maximum number of file matches in a batch
+     */
+    public BatchingReceiver(BatchReceiver target, long window, int maxBatch) {
+        this.target = target;
+        this.window = window;
+        this.maxBatch = Math.max(1, maxBatch);
+        newMatches = new LinkedHashSet<>();
+        amendedMatches = new LinkedHashSet<>();
+    }
+    
+    @Override
+    public void newFileMatches(Collection<FileMatch> matches) {
+        boolean full;
+        synchronized (this) {
+            startBatch();
+            newMatches.addAll(matches);
+            full = newMatches.size() + amendedMatches.size() >= maxBatch;
+        }
+        if (full)
+            flush();
+    }
+    
+    @Override
+    public void newLineMatches(FileMatch amendedMatch) {
+        boolean full;
+        synchronized (this) {
+            startBatch();
+            if (!newMatches.contains(amendedMatch))
+                amendedMatches.add(amendedMatch);
+            full = newMatches.size() + amendedMatches.size() >= maxBatch;
+        }
+        if (full)
+            flush();
+    }
+    
+    private void startBatch() {
+        if (window > 0 && scheduledFlush == null && newMatches.isEmpty() && amendedMatches.isEmpty())
+            scheduledFlush = Scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, window);
+    }
+    
+    /**
+     * Delivers the current batch right away, if there is one.
+     */
+    public void flush() {
+        synchronized (deliveryLock) {
+            Collection<FileMatch> batchNew, batchAmended;
+            synchronized (this) {
+                if (scheduledFlush != null) {
+                    scheduledFlush.cancel(false);
+                    scheduledFlush = null;
+                }
+                if (newMatches.isEmpty() && amendedMatches.isEmpty())
+                    return;
+                
+                batchNew = Collections.unmodifiableCollection(new ArrayList<>(newMatches));
+                batchAmended = Collections.unmodifiableCollection(new ArrayList<>(amendedMatches));
+                newMatches.clear();
+                amendedMatches.clear();
+            }
+            target.newResults(batchNew, batchAmended);
+        }
+    }
+    
+}
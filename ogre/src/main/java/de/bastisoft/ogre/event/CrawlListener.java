@@ -0,0 +1,43 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.event;
+
+import de.bastisoft.ogre.CrawlEdge;
+import de.bastisoft.ogre.ScraperException;
+
+/**
+ * Receives the edges of the graph walked by a reference crawler as they are found. Calls
+ * are made from several threads, but never at the same time.
+ */
+public interface CrawlListener {
+
+    /**
+     * Called for every edge found.
+     * 
+     * @param edge the edge
+     */
+    void edgeFound(CrawlEdge edge);
+    
+    /**
+     * Called when the search for a symbol has failed. The crawl goes on without the
+     * edges from that symbol.
+     * 
+     * @param symbol the symbol
+     * @param e the error
+     */
+    void searchFailed(String symbol, ScraperException e);
+    
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.event;
+
+import de.bastisoft.ogre.Stage;
+
+/**
+ * Receives the time spent in the stages of processing responses, from all scrapers.
+ * Calls are made from the threads that run searches, so implementations must be fast
+ * and thread-safe.
+ * 
+ * @see de.bastisoft.ogre.Instrumentation
+ */
+public interface StageListener {
+
+    /**
+     * Called when a stage has been completed for a response.
+     * 
+     * @param host the host name of the server, or <code>null</code> if unknown
+     * @param stage the stage
+     * @param nanos the time spent in the stage, in nanoseconds
+     */
+    void stageCompleted(String host, Stage stage, long nanos);
+    
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.event;
+
+import de.bastisoft.ogre.SearchTelemetry;
+
+/**
+ * Receives timing and throughput figures of a query after every HTTP request. This
+ * complements {@link ProgressListener}, which is called before every request.
+ */
+public interface TelemetryListener {
+
+    /**
+     * Called after an HTTP request has been completed and its response processed.
+     * 
+     * @param telemetry the figures as of this request
+     */
+    void requestCompleted(SearchTelemetry telemetry);
+    
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.event;
+
+import de.bastisoft.ogre.ResultDelta;
+import de.bastisoft.ogre.ScraperException;
+
+/**
+ * Receives the changes between consecutive runs of a watched search.
+ */
+public interface WatchListener {
+
+    /**
+     * Called when a run of the watched search has found different results than the run
+     * before it. The first run reports all of its results as added.
+     * 
+     * @param delta the changes
+     */
+    void resultChanged(ResultDelta delta);
+    
+    /**
+     * Called when a run of the watched search has failed. The watcher keeps running and
+     * compares the next successful run with the last successful one.
+     * 
+     * @param e the error
+     */
+    void searchFailed(ScraperException e);
+    
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.bastisoft.ogre.export;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+import de.bastisoft.ogre.FileMatch;
+import de.bastisoft.ogre.LineMatch;
+import de.bastisoft.ogre.LineMatch.Highlight;
+import de.bastisoft.ogre.WebLink;
+import de.bastisoft.ogre.event.ResultReceiver;
+import de.bastisoft.ogre.util.Json;
+import de.bastisoft.ogre.util.Scheduler;
+
+/**
+ * Writes search results to a character stream as they arrive, either as JSON Lines or
+ * as CSV. Register it with a scraper as a result receiver. Nothing is retained once it
+ * has been written, so the sink can be used for searches of any size.
+ * 
+ * <p>Every file match is written when it is first reported, with the line matches known
+ * at that point. When a file match is amended, its complete set of line matches is written
+ * again as an amendment; consumers that only want the final state should let amendments
+ * replace earlier records for the same path.
+ * 
+ * <p>In JSON Lines format, every record is a JSON object on a line of its own:
+ * <pre>
+ * {"type":"file","path":"/dir/name","dir":"/dir/","file":"name","abridged":false,
+ *  "xref":"http://...","lines":[{"line":12,"text":"...","highlights":[[4,7]]}]}</pre>
+ * Amendments have the type <code>"lines"</code> and the same fields.
+ * 
+ * <p>In CSV format, there is a header and then one row per line match, with the columns
+ * type, path, line, text and highlights (as <code>start-end</code> pairs separated by
+ * spaces). Files without line matches get a row with empty line columns.
+ * 
+ * <p>Output is buffered and flushed at a fixed interval, so consumers see results soon
+ * even though not every record is flushed. Write errors cannot be reported to the scraper;
+ * the first one is remembered and thrown from {@link #flush} or {@link #close}, and the
+ * sink stops writing.
+ */
+public class ExportSink implements ResultReceiver, Flushable, Closeable {
+
+    public enum Format { JSON_LINES, CSV }
+    
+    private final Writer out;
+    private final Format format;
+    private final StringBuilder record;
+    private final ScheduledFuture<?> flushTask;
+    
+    private IOException failure;
+    private boolean dirty;
+    
+    /**
+     * Creates a sink that flushes its output once per second.
+     * 
+     * @param out the stream to write to; it will be closed when the sink is closed
+     * @param format output format
+     */
+    public ExportSink(Writer out, Format format) {
+        this(out, format, 1000);
+    }
+    
+    /**
+     * Creates a sink.
+     * 
+     * @param out the stream to write to; it will be closed when the sink is closed
+     * @param format output format
+     * @param flushInterval milliseconds between flushes; 0 or less means that the output
+     *          is only flushed on request and when the sink is closed
+     */
+    public ExportSink(Writer out, Format format, long flushInterval) {
+        this.out = new BufferedWriter(out, 64 * 1024);
+        this.format = format;
+        record = new StringBuilder(1024);
+        
+        if (format == Format.CSV)
+            write("type,path,line,text,highlights\r\n");
+        
+        if (flushInterval > 0)
+            flushTask = Scheduler.scheduleRepeating(new Runnable() {
+                @Override
+                public void run() {
+                    flushQuietly();
+                }
+            }, flushInterval);
+        else
+            flushTask = null;
+    }
+    
+    @Override
+    public void newFileMatches(Collection<FileMatch> newMatches) {
+        for (FileMatch match : newMatches)
+            export("file", match);
+    }
+    
+    @Override
+    public void newLineMatches(FileMatch amendedMatch) {
+        export("lines", amendedMatch);
+    }
+    
+    private void export(String type, FileMatch match) {
+        // Take the snapshot before locking, paging in from a spill file may take a moment
+        List<LineMatch> lines = match.getLines();
+        
+        synchronized (record) {
+            record.setLength(0);
+            if (format == Format.JSON_LINES)
+                appendJson(type, match, lines);
+            else
+                appendCsv(type, match, lines);
+            write(record);
+        }
+    }
+    
+    private void appendJson(String type, FileMatch match, List<LineMatch> lines) {
+        record.append("{\"type\":\"").append(type).append("\",\"path\":");
+        Json.appendString(record, match.getFullName());
+        record.append(",\"dir\":");
+        Json.appendString(record, match.getDirectory());
+        record.append(",\"file\":");
+        Json.appendString(record, match.getFilename());
+        record.append(",\"abridged\":").append(match.abridged());
+        
+        WebLink xref = match.getXrefLink();
+        if (xref != null) {
+            record.append(",\"xref\":");
+            Json.appendString(record, xref.url.toExternalForm());
+        }
+        
+        record.append(",\"lines\":[");
+        for (int i = 0; i < lines.size(); i++) {
+            LineMatch line = lines.get(i);
+            if (i > 0)
+                record.append(',');
+            record.append("{\"line\":").append(line.getLineNumber()).append(",\"text\":");
+            Json.appendString(record, line.getLine());
+            record.append(",\"highlights\":[");
+            List<Highlight> highlights = line.getHighlights();
+            for (int j = 0; j < highlights.size(); j++) {
+                if (j > 0)
+                    record.append(',');
+                record.append('[').append(highlights.get(j).getStart())
+                      .append(',').append(highlights.get(j).getEnd()).append(']');
+            }
+            record.append("]}");
+        }
+        record.append("]}\n");
+    }
+    
+    private void appendCsv(String type, FileMatch match, List<LineMatch> lines) {
+        if (lines.isEmpty()) {
+            record.append(type).append(',');
+            appendCsvField(match.getFullName());
+            record.append(",,,\r\n");
+            return;
+        }
+        
+        for (LineMatch line : lines) {
+            record.append(type).append(',');
+            appendCsvField(match.getFullName());
+            record.append(',').append(line.getLineNumber()).append(',');
+            appendCsvField(line.getLine());
+            record.append(',');
+            List<Highlight> highlights = line.getHighlights();
+            for (int j = 0; j < highlights.size(); j++) {
+                if (j > 0)
+                    record.append(' ');
+                record.append(highlights.get(j).getStart()).append('-').append(highlights.get(j).getEnd());
+            }
+            record.append("\r\n");
+        }
+    }
+    
+    private void appendCsvField(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            record.append(s);
+            return;
+        }
+        
+        record.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"')
+                record.append('"');
+            record.append(c);
+        }
+        record.append('"');
+    }
+    
+    private void write(CharSequence text) {
+        synchronized (out) {
+            if (failure != null)
+                return;
+            try {
+                out.append(text);
+                dirty = true;
+            }
+            catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+    
+    private void flushQuietly() {
+        synchronized (out) {
+            if (failure != null || !dirty)
+                return;
+            try {
+                out.flush();
+                dirty = false;
+            }
+            catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+    
+    /**
+     * Flushes everything written so far to the underlying stream.
+     * 
+     * @throws IOException if this or an earlier write failed
+     */
+    @Override
+    public void flush() throws IOException {
+        flushQuietly();
+        synchronized (out) {
+            if (failure != null)
+                throw failure;
+        }
+    }
+    
+    /**
+     * Flushes the output and closes the underlying stream.
+     * 
+     * @throws IOException if this or an earlier write failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (flushTask != null)
+            flushTask.cancel(false);
+        
+        try {
+            flush();
+        }
+        finally {
+            out.close();
+        }
+    }
+    
+}
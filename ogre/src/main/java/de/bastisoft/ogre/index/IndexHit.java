@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.index;
+
+import java.util.Collections;
+import java.util.List;
+
+import de.bastisoft.ogre.FileMatch;
+import de.bastisoft.ogre.LineMatch;
+
+/**
+ * A file found in a {@link ResultIndex}, with the line matches that satisfy the query.
+ */
+public class IndexHit {
+
+    private FileMatch file;
+    private List<LineMatch> lines;
+    private int hitCount;
+    
+    IndexHit(FileMatch file, List<LineMatch> lines, int hitCount) {
+        this.file = file;
+        this.lines = Collections.unmodifiableList(lines);
+        this.hitCount = hitCount;
+    }
+    
+    public FileMatch getFile() {
+        return file;
+    }
+    
+    /**
+     * Returns the line matches of the file that satisfy the query, sorted by line number.
+     * For path queries, this list is empty.
+     * 
+     * @return the matching lines
+     */
+    public List<LineMatch> getLines() {
+        return lines;
+    }
+    
+    /**
+     * Returns the number of hits in this file, which is what hits are ranked by. For text
+     * queries, this is the number of matching lines; for path queries, it is 1.
+     * 
+     * @return the number of hits
+     */
+    public int getHitCount() {
+        return hitCount;
+    }
+    
+}
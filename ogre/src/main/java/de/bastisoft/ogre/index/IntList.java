@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.index;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of ints, used for postings. Postings are appended in ascending order,
+ * so every list is sorted and can be intersected with another in a single pass.
+ */
+final class IntList {
+
+    private int[] values;
+    private int size;
+    
+    IntList() {
+        values = new int[4];
+    }
+    
+    IntList(int[] values, int size) {
+        this.values = values;
+        this.size = size;
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    int get(int index) {
+        return values[index];
+    }
+    
+    /**
+     * Appends a value unless it is the same as the last one.
+     */
+    void addDistinct(int value) {
+        if (size > 0 && values[size - 1] == value)
+            return;
+        if (size == values.length)
+            values = Arrays.copyOf(values, size * 2);
+        values[size++] = value;
+    }
+    
+    IntList intersect(IntList other) {
+        int[] common = new int[Math.min(size, other.size)];
+        int n = 0;
+        for (int i = 0, j = 0; i < size && j < other.size; ) {
+            if (values[i] < other.values[j])
+                i++;
+            else if (values[i] > other.values[j])
+                j++;
+            else {
+                common[n++] = values[i];
+                i++;
+                j++;
+            }
+        }
+        return new IntList(common, n);
+    }
+    
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import de.bastisoft.ogre.FileMatch;
+import de.bastisoft.ogre.LineMatch;
+import de.bastisoft.ogre.SearchResult;
+import de.bastisoft.ogre.event.ResultReceiver;
+
+/**
+ * An in-memory inverted index over the line matches and file paths of search results,
+ * for searching within results that have already been fetched. Register it with a scraper
+ * as a result receiver to have it built while the search is running, or add a complete
+ * result with {@link #add(SearchResult)}.
+ * 
+ * <p>Line texts are indexed by token and by trigram, file paths by trigram; all postings
+ * are kept in sorted int arrays. Three kinds of queries are supported:
+ * 
+ * <ul>
+ * <li>{@link #search} finds lines that contain all of the given words;
+ * <li>{@link #searchText} finds lines that contain a piece of text;
+ * <li>{@link #searchPath} finds files whose path contains a piece of text.
+ * </ul>
+ * 
+ * <p>All queries are case-insensitive. Results are grouped by file and ranked by the
+ * number of hits, then by the order in which the files were added. The index keeps
+ * references to the line matches it has indexed, so line matches of a result with a
+ * spill file stay in memory.
+ * 
+ * <p>The index can be queried while it is being built.
+ */
+public class ResultIndex implements ResultReceiver {
+
+    private static final Comparator<LineMatch> BY_LINE_NUMBER = new Comparator<LineMatch>() {
+        @Override
+        public int compare(LineMatch o1, LineMatch o2) {
+            return Integer.compare(o1.getLineNumber(), o2.getLineNumber());
+        }
+    };
+    
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    // File and line ids are indexes into these
+    private final List<FileMatch> files = new ArrayList<>();
+    private final List<BitSet> indexedLineNumbers = new ArrayList<>();
+    private final Map<String, Integer> fileIds = new HashMap<>();
+    private LineMatch[] lines = new LineMatch[1024];
+    private int[] lineFiles = new int[1024];
+    private int lineCount;
+    
+    private final Map<String, IntList> tokenPostings = new HashMap<>();
+    private final Map<Long, IntList> trigramPostings = new HashMap<>();
+    private final Map<Long, IntList> pathTrigramPostings = new HashMap<>();
+    
+    @Override
+    public void newFileMatches(Collection<FileMatch> newMatches) {
+        lock.writeLock().lock();
+        try {
+            for (FileMatch match : newMatches)
+                addFile(match);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public void newLineMatches(FileMatch amendedMatch) {
+        lock.writeLock().lock();
+        try {
+            addFile(amendedMatch);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Adds the file matches of a search result to the index.
+     * 
+     * @param result the search result
+     */
+    public void add(SearchResult result) {
+        newFileMatches(result.files());
+    }
+    
+    public int fileCount() {
+        lock.readLock().lock();
+        try {
+            return files.size();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public int lineCount() {
+        lock.readLock().lock();
+        try {
+            return lineCount;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Adds a file match, or the line matches that are new if it has been added before.
+     * File matches are recognized by their full path, and line matches by their line number.
+     */
+    private void addFile(FileMatch match) {
+        Integer id = fileIds.get(match.getFullName());
+        if (id == null) {
+            id = files.size();
+            fileIds.put(match.getFullName(), id);
+            files.add(match);
+            indexedLineNumbers.add(new BitSet());
+            
+            String path = match.getFullName().toLowerCase();
+            for (int i = 0; i + 3 <= path.length(); i++)
+                post(pathTrigramPostings, trigram(path, i), id);
+        }
+        
+        BitSet indexed = indexedLineNumbers.get(id);
+        for (LineMatch line : match.getLines()) {
+            if (line.getLineNumber() >= 0) {
+                if (indexed.get(line.getLineNumber()))
+                    continue;
+                indexed.set(line.getLineNumber());
+            }
+            addLine(id, line);
+        }
+    }
+    
+    private void addLine(int fileId, LineMatch line) {
+        if (lineCount == lines.length) {
+            lines = Arrays.copyOf(lines, lineCount * 2);
+            lineFiles = Arrays.copyOf(lineFiles, lineCount * 2);
+        }
+        int id = lineCount++;
+        lines[id] = line;
+        lineFiles[id] = fileId;
+        
+        String text = line.getLine().toLowerCase();
+        for (String word : words(text)) {
+            IntList postings = tokenPostings.get(word);
+            if (postings == null)
+                tokenPostings.put(word, postings = new IntList());
+            postings.addDistinct(id);
+        }
+        
+        for (int i = 0; i + 3 <= text.length(); i++)
+            post(trigramPostings, trigram(text, i), id);
+    }
+    
+    private static void post(Map<Long, IntList> postings, long key, int id) {
+        IntList list = postings.get(key);
+        if (list == null)
+            postings.put(key, list = new IntList());
+        list.addDistinct(id);
+    }
+    
+    private static long trigram(String s, int index) {
+        return (long) s.charAt(index) << 32 | (long) s.charAt(index + 1) << 16 | s.charAt(index + 2);
+    }
+    
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_');
+            if (wordChar && start < 0)
+                start = i;
+            else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+    
+    /**
+     * Finds lines that contain all of the given words. Words are sequences of letters,
+     * digits and underscores; everything else in the query separates words.
+     * 
+     * @param query the words to look for
+     * @return the files with matching lines, best first
+     */
+    public List<IndexHit> search(String query) {
+        List<String> words = words(query.toLowerCase());
+        if (words.isEmpty())
+            return Collections.emptyList();
+        
+        lock.readLock().lock();
+        try {
+            List<IntList> postings = new ArrayList<>(words.size());
+            for (String word : words) {
+                IntList list = tokenPostings.get(word);
+                if (list == null)
+                    return Collections.emptyList();
+                postings.add(list);
+            }
+            return lineHits(intersect(postings), null);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Finds lines that contain a piece of text.
+     * 
+     * @param text the text to look for
+     * @return the files with matching lines, best first
+     */
+    public List<IndexHit> searchText(String text) {
+        String lowerText = text.toLowerCase();
+        lock.readLock().lock();
+        try {
+            IntList candidates = candidates(trigramPostings, lowerText, lineCount);
+            return candidates == null ? Collections.<IndexHit>emptyList() : lineHits(candidates, lowerText);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Finds files whose full path contains a piece of text.
+     * 
+     * @param text the text to look for
+     * @return the matching files, in the order in which they were added
+     */
+    public List<IndexHit> searchPath(String text) {
+        String lowerText = text.toLowerCase();
+        lock.readLock().lock();
+        try {
+            IntList candidates = candidates(pathTrigramPostings, lowerText, files.size());
+            if (candidates == null)
+                return Collections.emptyList();
+            
+            List<IndexHit> hits = new ArrayList<>();
+            for (int i = 0; i < candidates.size(); i++) {
+                FileMatch file = files.get(candidates.get(i));
+                if (file.getFullName().toLowerCase().contains(lowerText))
+                    hits.add(new IndexHit(file, Collections.<LineMatch>emptyList(), 1));
+            }
+            return hits;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns the ids that may contain a text according to the trigram postings, or all
+     * ids if the text is too short to have trigrams, or <code>null</code> if there can be
+     * no match. The candidates still have to be checked.
+     */
+    private static IntList candidates(Map<Long, IntList> postings, String text, int idCount) {
+        if (text.length() < 3) {
+            int[] all = new int[idCount];
+            for (int i = 0; i < idCount; i++)
+                all[i] = i;
+            return new IntList(all, idCount);
+        }
+        
+        List<IntList> lists = new ArrayList<>(text.length() - 2);
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            IntList list = postings.get(trigram(text, i));
+            if (list == null)
+                return null;
+            lists.add(list);
+        }
+        return intersect(lists);
+    }
+    
+    private static IntList intersect(List<IntList> postings) {
+        // Start with the shortest list, so intermediate results are as small as possible
+        Collections.sort(postings, new Comparator<IntList>() {
+            @Override
+            public int compare(IntList o1, IntList o2) {
+                return Integer.compare(o1.size(), o2.size());
+            }
+        });
+        
+        IntList result = postings.get(0);
+        for (int i = 1; i < postings.size() && result.size() > 0; i++)
+            result = result.intersect(postings.get(i));
+        return result;
+    }
+    
+    /**
+     * Groups matching lines by file and ranks the files. If a text is given, lines that
+     * do not contain it are left out.
+     */
+    private List<IndexHit> lineHits(IntList lineIds, String lowerText) {
+        Map<Integer, List<LineMatch>> byFile = new TreeMap<>();
+        for (int i = 0; i < lineIds.size(); i++) {
+            int id = lineIds.get(i);
+            if (lowerText != null && !lines[id].getLine().toLowerCase().contains(lowerText))
+                continue;
+            
+            List<LineMatch> fileLines = byFile.get(lineFiles[id]);
+            if (fileLines == null)
+                byFile.put(lineFiles[id], fileLines = new ArrayList<>());
+            fileLines.add(lines[id]);
+        }
+        
+        List<IndexHit> hits = new ArrayList<>(byFile.size());
+        for (Map.Entry<Integer, List<LineMatch>> entry : byFile.entrySet()) {
+            List<LineMatch> fileLines = entry.getValue();
+            Collections.sort(fileLines, BY_LINE_NUMBER);
+            hits.add(new IndexHit(files.get(entry.getKey()), fileLines, fileLines.size()));
+        }
+        
+        // The sort is stable, so files with the same number of hits stay in file id order
+        Collections.sort(hits, new Comparator<IndexHit>() {
+            @Override
+            public int compare(IndexHit o1, IndexHit o2) {
+                return Integer.compare(o2.getHitCount(), o1.getHitCount());
+            }
+        });
+        return hits;
+    }
+    
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in buckets of powers of two nanoseconds. Percentiles
+ * are reported as the upper bound of the bucket they fall into, so they are accurate to
+ * within a factor of two, which is enough to tell a 2 ms stage from a 200 ms one.
+ */
+class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    
+    void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        
+        // Bucket i holds durations from 2^i up to 2^(i+1) - 1, and 0 goes with 1
+        buckets.incrementAndGet(nanos == 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos));
+    }
+    
+    long count() {
+        return count.get();
+    }
+    
+    long totalNanos() {
+        return total.get();
+    }
+    
+    long maxNanos() {
+        return max.get();
+    }
+    
+    /**
+     * Returns the upper bound of the bucket that contains a percentile, or the maximum if
+     * that is lower.
+     * 
+     * @param percentile the percentile, between 0 and 100
+     * @return the percentile in nanoseconds, or 0 if nothing has been recorded
+     */
+    long percentileNanos(double percentile) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            n += buckets.get(i);
+        if (n == 0)
+            return 0;
+        
+        long rank = (long) Math.ceil(n * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0)
+                return Math.min((1L << (i + 1)) - 1, max.get());
+        }
+        return max.get();
+    }
+    
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets.set(i, 0);
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+    
+}
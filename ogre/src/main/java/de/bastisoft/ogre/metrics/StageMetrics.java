@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import de.bastisoft.ogre.Instrumentation;
+import de.bastisoft.ogre.Stage;
+import de.bastisoft.ogre.event.StageListener;
+
+/**
+ * Aggregates the time spent in the stages of processing responses per server and stage,
+ * over the lifetime of the VM, and publishes the figures as MBeans on the platform MBean
+ * server. Every combination of server and stage gets an MBean named
+ * <code>de.bastisoft.ogre:type=StageStats,host=<i>host</i>,stage=<i>stage</i></code>
+ * when it is first seen.
+ * 
+ * <p>Recording a stage takes a hash lookup and a few atomic updates, so the metrics can
+ * be left on in production.
+ */
+public class StageMetrics implements StageListener {
+
+    private static final String DOMAIN = "de.bastisoft.ogre";
+    
+    private static StageMetrics installed;
+    
+    private final ConcurrentMap<String, StageStats[]> hosts = new ConcurrentHashMap<>();
+    private final MBeanServer mbeanServer;
+    
+    private StageMetrics(MBeanServer mbeanServer) {
+        this.mbeanServer = mbeanServer;
+    }
+    
+    /**
+     * Starts collecting metrics for all scrapers, unless that has been done before.
+     * 
+     * @return the metrics
+     */
+    public static synchronized StageMetrics install() {
+        if (installed == null) {
+            installed = new StageMetrics(ManagementFactory.getPlatformMBeanServer());
+            Instrumentation.addStageListener(installed);
+        }
+        return installed;
+    }
+    
+    /**
+     * Stops collecting metrics and unregisters the MBeans.
+     */
+    public static synchronized void uninstall() {
+        if (installed == null)
+            return;
+        
+        Instrumentation.removeStageListener(installed);
+        for (StageStats[] stats : installed.hosts.values())
+            for (StageStats s : stats)
+                installed.unregister(s);
+        installed = null;
+    }
+    
+    @Override
+    public void stageCompleted(String host, Stage stage, long nanos) {
+        statsFor(host != null ? host : "unknown")[stage.ordinal()].record(nanos);
+    }
+    
+    /**
+     * Returns the figures for a server and stage.
+     * 
+     * @param host the host name of the server
+     * @param stage the stage
+     * @return the figures, or <code>null</code> if nothing has been recorded for the server
+     */
+    public StageStats getStats(String host, Stage stage) {
+        StageStats[] stats = hosts.get(host);
+        return stats != null ? stats[stage.ordinal()] : null;
+    }
+    
+    /**
+     * Returns the figures for all servers and stages.
+     * 
+     * @return the figures
+     */
+    public Collection<StageStats> getAllStats() {
+        Collection<StageStats> all = new ArrayList<>();
+        for (StageStats[] stats : hosts.values())
+            for (StageStats s : stats)
+                all.add(s);
+        return all;
+    }
+    
+    private StageStats[] statsFor(String host) {
+        StageStats[] stats = hosts.get(host);
+        if (stats != null)
+            return stats;
+        
+        Stage[] stages = Stage.values();
+        stats = new StageStats[stages.length];
+        for (int i = 0; i < stages.length; i++)
+            stats[i] = new StageStats(host, stages[i]);
+        
+        StageStats[] existing = hosts.putIfAbsent(host, stats);
+        if (existing != null)
+            return existing;
+        
+        for (StageStats s : stats)
+            register(s);
+        return stats;
+    }
+    
+    private ObjectName name(StageStats stats) throws JMException {
+        return new ObjectName(DOMAIN + ":type=StageStats,host=" + ObjectName.quote(stats.getHost()) + ",stage=" + stats.getStage());
+    }
+    
+    private void register(StageStats stats) {
+        try {
+            mbeanServer.registerMBean(stats, name(stats));
+        }
+        catch (JMException e) {
+            // The figures are still recorded and available through getStats()
+        }
+    }
+    
+    private void unregister(StageStats stats) {
+        try {
+            mbeanServer.unregisterMBean(name(stats));
+        }
+        catch (JMException e) {
+            // Never registered
+        }
+    }
+    
+}
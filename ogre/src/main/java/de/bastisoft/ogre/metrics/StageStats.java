@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.metrics;
+
+import de.bastisoft.ogre.Stage;
+
+/**
+ * The time spent in one stage of processing responses from one server.
+ */
+public class StageStats implements StageStatsMBean {
+
+    private final String host;
+    private final Stage stage;
+    private final LatencyHistogram histogram;
+    
+    StageStats(String host, Stage stage) {
+        this.host = host;
+        this.stage = stage;
+        histogram = new LatencyHistogram();
+    }
+    
+    void record(long nanos) {
+        histogram.record(nanos);
+    }
+    
+    @Override
+    public String getHost() {
+        return host;
+    }
+    
+    @Override
+    public String getStage() {
+        return stage.name();
+    }
+    
+    @Override
+    public long getCount() {
+        return histogram.count();
+    }
+    
+    @Override
+    public long getTotalMillis() {
+        return histogram.totalNanos() / 1000000;
+    }
+    
+    @Override
+    public double getMeanMicros() {
+        long count = histogram.count();
+        return count > 0 ? histogram.totalNanos() / 1000.0 / count : 0;
+    }
+    
+    @Override
+    public long getMaxMicros() {
+        return histogram.maxNanos() / 1000;
+    }
+    
+    @Override
+    public long getMedianMicros() {
+        return histogram.percentileNanos(50) / 1000;
+    }
+    
+    @Override
+    public long getPercentile90Micros() {
+        return histogram.percentileNanos(90) / 1000;
+    }
+    
+    @Override
+    public long getPercentile99Micros() {
+        return histogram.percentileNanos(99) / 1000;
+    }
+    
+    @Override
+    public void reset() {
+        histogram.reset();
+    }
+    
+}
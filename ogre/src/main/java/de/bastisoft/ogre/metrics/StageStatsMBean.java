@@ -0,0 +1,44 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.metrics;
+
+/**
+ * Management interface for the time spent in one stage of processing responses from one
+ * server, since the metrics were installed or last reset.
+ */
+public interface StageStatsMBean {
+
+    String getHost();
+    
+    String getStage();
+    
+    long getCount();
+    
+    long getTotalMillis();
+    
+    double getMeanMicros();
+    
+    long getMaxMicros();
+    
+    long getMedianMicros();
+    
+    long getPercentile90Micros();
+    
+    long getPercentile99Micros();
+    
+    void reset();
+    
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.trace;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import de.bastisoft.ogre.util.Json;
+
+/**
+ * Writes and reads the subset of the HTTP Archive (HAR) 1.2 format that traces need.
+ * Bodies are stored in base64, so that they are replayed byte for byte whatever their
+ * encoding. Requests that failed with an exception are stored with the custom field
+ * <code>_error</code>, which holds the class and message of the exception, and status 0
+ * if there was no response at all. The JSON parser accepts any well-formed JSON, but only
+ * looks at the fields written here.
+ */
+final class Har {
+
+    static final String HEADER = "{\"log\":{\"version\":\"1.2\",\"creator\":{\"name\":\"OGRE\",\"version\":\"1\"},\"entries\":[\n";
+    static final String TRAILER = "\n]}}\n";
+    
+    /**
+     * A recorded request and its response.
+     */
+    static class Entry {
+        
+        long started;
+        String url;
+        Map<String, String> requestHeaders = new LinkedHashMap<>();
+        int status;
+        String redirectURL;
+        Map<String, List<String>> responseHeaders = new LinkedHashMap<>();
+        String mimeType;
+        byte[] body;
+        double waitMillis;
+        double receiveMillis;
+        String errorClass;
+        String errorMessage;
+        
+    }
+    
+    private Har() {}
+    
+    private static DateFormat dateFormat() {
+        DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+    
+    /* Writing */
+    
+    static void append(StringBuilder sb, Entry e) {
+        sb.append("{\"startedDateTime\":");
+        Json.appendString(sb, dateFormat().format(e.started));
+        sb.append(",\"time\":").append(millis(e.waitMillis + e.receiveMillis));
+        
+        sb.append(",\"request\":{\"method\":\"GET\",\"url\":");
+        Json.appendString(sb, e.url);
+        sb.append(",\"httpVersion\":\"HTTP/1.1\",\"headers\":[");
+        boolean first = true;
+        for (Map.Entry<String, String> h : e.requestHeaders.entrySet())
+            first = appendHeader(sb, h.getKey(), h.getValue(), first);
+        sb.append("],\"queryString\":[],\"cookies\":[],\"headersSize\":-1,\"bodySize\":0}");
+        
+        sb.append(",\"response\":{\"status\":").append(e.status);
+        sb.append(",\"statusText\":\"\",\"httpVersion\":\"HTTP/1.1\",\"headers\":[");
+        first = true;
+        for (Map.Entry<String, List<String>> h : e.responseHeaders.entrySet())
+            for (String value : h.getValue())
+                first = appendHeader(sb, h.getKey(), value, first);
+        sb.append("],\"cookies\":[],\"content\":{\"size\":").append(e.body.length).append(",\"mimeType\":");
+        Json.appendString(sb, e.mimeType != null ? e.mimeType : "");
+        sb.append(",\"text\":\"").append(Base64.encode(e.body)).append("\",\"encoding\":\"base64\"}");
+        sb.append(",\"redirectURL\":");
+        Json.appendString(sb, e.redirectURL != null ? e.redirectURL : "");
+        sb.append(",\"headersSize\":-1,\"bodySize\":").append(e.body.length).append('}');
+        
+        sb.append(",\"cache\":{},\"timings\":{\"send\":0,\"wait\":").append(millis(e.waitMillis));
+        sb.append(",\"receive\":").append(millis(e.receiveMillis)).append('}');
+        
+        if (e.errorClass != null) {
+            sb.append(",\"_error\":{\"class\":");
+            Json.appendString(sb, e.errorClass);
+            sb.append(",\"message\":");
+            if (e.errorMessage != null)
+                Json.appendString(sb, e.errorMessage);
+            else
+                sb.append("null");
+            sb.append('}');
+        }
+        sb.append('}');
+    }
+    
+    private static boolean appendHeader(StringBuilder sb, String name, String value, boolean first) {
+        if (!first)
+            sb.append(',');
+        sb.append("{\"name\":");
+        Json.appendString(sb, name);
+        sb.append(",\"value\":");
+        Json.appendString(sb, value);
+        sb.append('}');
+        return false;
+    }
+    
+    private static String millis(double millis) {
+        return String.format(Locale.ROOT, "%.3f", millis);
+    }
+    
+    /* Reading */
+    
+    static List<Entry> read(Reader in) throws IOException {
+        Object root = new JsonParser(in).parse();
+        List<Entry> entries = new ArrayList<>();
+        for (Object o : list(get(map(get(map(root), "log")), "entries")))
+            entries.add(entry(map(o)));
+        return entries;
+    }
+    
+    private static Entry entry(Map<?, ?> json) throws IOException {
+        Entry e = new Entry();
+        try {
+            e.started = dateFormat().parse(string(get(json, "startedDateTime"))).getTime();
+        }
+        catch (ParseException ex) {
+            throw new IOException("Invalid date in trace: " + ex.getMessage(), ex);
+        }
+        
+        Map<?, ?> request = map(get(json, "request"));
+        e.url = string(get(request, "url"));
+        for (Object h : list(get(request, "headers"))) {
+            Map<?, ?> header = map(h);
+            e.requestHeaders.put(string(get(header, "name")), string(get(header, "value")));
+        }
+        
+        Map<?, ?> response = map(get(json, "response"));
+        e.status = (int) number(get(response, "status"));
+        for (Object h : list(get(response, "headers"))) {
+            Map<?, ?> header = map(h);
+            String name = string(get(header, "name"));
+            List<String> values = e.responseHeaders.get(name);
+            if (values == null)
+                e.responseHeaders.put(name, values = new ArrayList<>());
+            values.add(string(get(header, "value")));
+        }
+        String redirect = (String) response.get("redirectURL");
+        e.redirectURL = redirect != null && redirect.length() > 0 ? redirect : null;
+        
+        Map<?, ?> content = map(get(response, "content"));
+        e.mimeType = (String) content.get("mimeType");
+        String text = content.containsKey("text") ? string(content.get("text")) : "";
+        if ("base64".equals(content.get("encoding")))
+            e.body = Base64.decode(text);
+        else
+            e.body = text.getBytes("UTF-8");
+        
+        Map<?, ?> timings = map(get(json, "timings"));
+        e.waitMillis = Math.max(0, number(get(timings, "wait")));
+        e.receiveMillis = Math.max(0, number(get(timings, "receive")));
+        
+        if (json.get("_error") != null) {
+            Map<?, ?> error = map(json.get("_error"));
+            e.errorClass = string(get(error, "class"));
+            Object message = error.get("message");
+            e.errorMessage = message != null ? string(message) : null;
+        }
+        return e;
+    }
+    
+    private static Object get(Map<?, ?> map, String key) throws IOException {
+        if (!map.containsKey(key))
+            throw new IOException("Missing field in trace: " + key);
+        return map.get(key);
+    }
+    
+    private static Map<?, ?> map(Object o) throws IOException {
+        if (o instanceof Map)
+            return (Map<?, ?>) o;
+        throw new IOException("Invalid trace: object expected");
+    }
+    
+    private static List<?> list(Object o) throws IOException {
+        if (o instanceof List)
+            return (List<?>) o;
+        throw new IOException("Invalid trace: array expected");
+    }
+    
+    private static String string(Object o) throws IOException {
+        if (o instanceof String)
+            return (String) o;
+        throw new IOException("Invalid trace: string expected");
+    }
+    
+    private static double number(Object o) throws IOException {
+        if (o instanceof Double)
+            return (Double) o;
+        throw new IOException("Invalid trace: number expected");
+    }
+    
+    /**
+     * Reads a JSON value into maps, lists, strings, doubles, booleans and <code>null</code>.
+     */
+    private static class JsonParser {
+        
+        private final Reader in;
+        private int c;
+        
+        JsonParser(Reader in) throws IOException {
+            this.in = in;
+            c = in.read();
+        }
+        
+        Object parse() throws IOException {
+            Object value = value();
+            skipSpace();
+            if (c != -1)
+                throw error("end of input");
+            return value;
+        }
+        
+        private Object value() throws IOException {
+            skipSpace();
+            switch (c) {
+                case '{': return object();
+                case '[': return array();
+                case '"': return string();
+                case 't': literal("true"); return Boolean.TRUE;
+                case 'f': literal("false"); return Boolean.FALSE;
+                case 'n': literal("null"); return null;
+                default:
+                    if (c == '-' || c >= '0' && c <= '9')
+                        return number();
+                    throw error("value");
+            }
+        }
+        
+        private Map<String, Object> object() throws IOException {
+            Map<String, Object> map = new LinkedHashMap<>();
+            next();
+            skipSpace();
+            if (c == '}') {
+                next();
+                return map;
+            }
+            while (true) {
+                skipSpace();
+                if (c != '"')
+                    throw error("field name");
+                String key = string();
+                skipSpace();
+                expect(':');
+                map.put(key, value());
+                skipSpace();
+                if (c == '}') {
+                    next();
+                    return map;
+                }
+                expect(',');
+            }
+        }
+        
+        private List<Object> array() throws IOException {
+            List<Object> list = new ArrayList<>();
+            next();
+            skipSpace();
+            if (c == ']') {
+                next();
+                return list;
+            }
+            while (true) {
+                list.add(value());
+                skipSpace();
+                if (c == ']') {
+                    next();
+                    return list;
+                }
+                expect(',');
+            }
+        }
+        
+        private String string() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            next();
+            while (c != '"') {
+                if (c == -1 || c < 0x20)
+                    throw error("end of string");
+                if (c == '\\') {
+                    next();
+                    switch (c) {
+                        case 'b': sb.append('\b'); break;
+                        case 'f': sb.append('\f'); break;
+                        case 'n': sb.append('\n'); break;
+                        case 'r': sb.append('\r'); break;
+                        case 't': sb.append('\t'); break;
+                        case 'u':
+                            int code = 0;
+                            for (int i = 0; i < 4; i++) {
+                                next();
+                                int digit = Character.digit(c, 16);
+                                if (digit < 0)
+                                    throw error("hex digit");
+                                code = code << 4 | digit;
+                            }
+                            sb.append((char) code);
+                            break;
+                        case '"': case '\\': case '/':
+                            sb.append((char) c);
+                            break;
+                        default:
+                            throw error("escape sequence");
+                    }
+                }
+                else
+                    sb.append((char) c);
+                next();
+            }
+            next();
+            return sb.toString();
+        }
+        
+        private Double number() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || c >= '0' && c <= '9') {
+                sb.append((char) c);
+                next();
+            }
+            try {
+                return Double.valueOf(sb.toString());
+            }
+            catch (NumberFormatException e) {
+                throw error("number");
+            }
+        }
+        
+        private void literal(String word) throws IOException {
+            for (int i = 0; i < word.length(); i++) {
+                if (c != word.charAt(i))
+                    throw error(word);
+                next();
+            }
+        }
+        
+        private void expect(char expected) throws IOException {
+            if (c != expected)
+                throw error("'" + expected + "'");
+            next();
+        }
+        
+        private void skipSpace() throws IOException {
+            while (c == ' ' || c == '\t' || c == '\n' || c == '\r')
+                next();
+        }
+        
+        private void next() throws IOException {
+            c = in.read();
+        }
+        
+        private IOException error(String expected) {
+            return new IOException("Invalid trace: expected " + expected);
+        }
+        
+    }
+    
+    /**
+     * Base64 with the standard alphabet and padding. Java 7 has no public codec of its own.
+     */
+    static final class Base64 {
+        
+        private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+        private static final int[] VALUES = new int[128];
+        
+        static {
+            Arrays.fill(VALUES, -1);
+            for (int i = 0; i < ALPHABET.length; i++)
+                VALUES[ALPHABET[i]] = i;
+        }
+        
+        private Base64() {}
+        
+        static String encode(byte[] data) {
+            StringBuilder sb = new StringBuilder((data.length + 2) / 3 * 4);
+            for (int i = 0; i < data.length; i += 3) {
+                int b = (data[i] & 0xff) << 16;
+                if (i + 1 < data.length) b |= (data[i + 1] & 0xff) << 8;
+                if (i + 2 < data.length) b |= data[i + 2] & 0xff;
+                sb.append(ALPHABET[b >>> 18 & 63]).append(ALPHABET[b >>> 12 & 63]);
+                sb.append(i + 1 < data.length ? ALPHABET[b >>> 6 & 63] : '=');
+                sb.append(i + 2 < data.length ? ALPHABET[b & 63] : '=');
+            }
+            return sb.toString();
+        }
+        
+        static byte[] decode(String s) throws IOException {
+            int length = s.length();
+            while (length > 0 && s.charAt(length - 1) == '=')
+                length--;
+            
+            byte[] data = new byte[length * 3 / 4];
+            int bits = 0, count = 0, n = 0;
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                int value = c < 128 ? VALUES[c] : -1;
+                if (value < 0)
+                    throw new IOException("Invalid base64 data in trace");
+                bits = bits << 6 | value;
+                count += 6;
+                if (count >= 8) {
+                    count -= 8;
+                    data[n++] = (byte) (bits >>> count);
+                }
+            }
+            return data;
+        }
+        
+    }
+    
+}
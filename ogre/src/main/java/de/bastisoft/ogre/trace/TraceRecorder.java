@@ -0,0 +1,245 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.trace;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import de.bastisoft.ogre.HttpStatusException;
+import de.bastisoft.ogre.HttpTransport;
+import de.bastisoft.ogre.Transport;
+
+/**
+ * A transport that records every request and response passing through it to a trace in
+ * HTTP Archive (HAR) format: URL, request and response headers, status, body and timings.
+ * The trace can be replayed with {@link TraceReplay}, or opened with any tool that reads
+ * HAR files.
+ * 
+ * <p>An exchange is written when its response is closed, so the trace is in the order in
+ * which responses were completed. The trace is only a valid HAR file after the recorder
+ * has been closed. Requests that fail with an exception are recorded when they fail, with
+ * the exception and, for an {@link HttpStatusException}, the status, headers and error
+ * page of the response, so that a replay fails the same way.
+ * 
+ * <p>Usage:
+ * <pre>
+ * try (TraceRecorder recorder = new TraceRecorder(new File("search.har"))) {
+ *     scraper.setTransport(recorder);
+ *     scraper.search(...);
+ * }</pre>
+ */
+public class TraceRecorder implements Transport, Closeable {
+
+    private final Transport transport;
+    private final Writer out;
+    private final StringBuilder record;
+    
+    private IOException failure;
+    private boolean empty;
+    private boolean closed;
+    
+    /**
+     * Creates a recorder that sends requests with an {@link HttpTransport}. An existing
+     * file is overwritten.
+     * 
+     * @param file the trace file
+     * @throws IOException if the file cannot be created
+     */
+    public TraceRecorder(File file) throws IOException {
+        this(new FileOutputStream(file), new HttpTransport());
+    }
+    
+    /**
+     * Creates a recorder.
+     * 
+     * @param out the stream to write the trace to; it will be closed when the recorder is closed
+     * @param transport the transport that carries out the requests
+     * @throws IOException if the start of the trace cannot be written
+     */
+    public TraceRecorder(OutputStream out, Transport transport) throws IOException {
+        this.transport = transport;
+        this.out = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        record = new StringBuilder(64 * 1024);
+        empty = true;
+        
+        this.out.write(Har.HEADER);
+    }
+    
+    @Override
+    public Response get(URL url, Map<String, String> headers, Proxy proxy) throws IOException {
+        final Har.Entry entry = new Har.Entry();
+        entry.started = System.currentTimeMillis();
+        entry.url = url.toExternalForm();
+        entry.requestHeaders.putAll(headers);
+        
+        final long start = System.nanoTime();
+        final Response response;
+        try {
+            response = transport.get(url, headers, proxy);
+        }
+        catch (IOException e) {
+            entry.waitMillis = (System.nanoTime() - start) / 1e6;
+            entry.errorClass = e.getClass().getName();
+            entry.errorMessage = e.getMessage();
+            entry.body = new byte[0];
+            if (e instanceof HttpStatusException) {
+                HttpStatusException status = (HttpStatusException) e;
+                setResponse(entry, url, status.getURL(), status.getStatus(), status.getHeaders());
+                entry.body = status.getBody();
+            }
+            write(entry);
+            throw e;
+        }
+        final long received = System.nanoTime();
+        
+        entry.waitMillis = (received - start) / 1e6;
+        setResponse(entry, url, response.getURL(), response.getStatus(), response.getHeaders());
+        
+        final ByteArrayOutputStream body = new ByteArrayOutputStream(64 * 1024);
+        final InputStream tee = new FilterInputStream(response.getBody()) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0)
+                    body.write(b);
+                return b;
+            }
+            
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int n = super.read(buffer, offset, length);
+                if (n > 0)
+                    body.write(buffer, offset, n);
+                return n;
+            }
+            
+            @Override
+            public long skip(long n) throws IOException {
+                // Skipped bytes must still be recorded
+                long skipped = 0;
+                while (skipped < n && read() >= 0)
+                    skipped++;
+                return skipped;
+            }
+            
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+        
+        return new Response() {
+            @Override
+            public URL getURL() {
+                return response.getURL();
+            }
+            
+            @Override
+            public int getStatus() {
+                return response.getStatus();
+            }
+            
+            @Override
+            public Map<String, List<String>> getHeaders() {
+                return response.getHeaders();
+            }
+            
+            @Override
+            public InputStream getBody() {
+                return tee;
+            }
+            
+            @Override
+            public void close() throws IOException {
+                entry.receiveMillis = (System.nanoTime() - received) / 1e6;
+                entry.body = body.toByteArray();
+                response.close();
+                write(entry);
+            }
+        };
+    }
+    
+    private static void setResponse(Har.Entry entry, URL url, URL responseURL, int status, Map<String, List<String>> headers) {
+        entry.status = status;
+        if (!responseURL.equals(url))
+            entry.redirectURL = responseURL.toExternalForm();
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            entry.responseHeaders.put(header.getKey(), header.getValue());
+            if (header.getKey().equalsIgnoreCase("Content-Type") && !header.getValue().isEmpty())
+                entry.mimeType = header.getValue().get(0);
+        }
+    }
+    
+    private synchronized void write(Har.Entry entry) {
+        if (failure != null || closed)
+            return;
+        
+        record.setLength(0);
+        if (!empty)
+            record.append(",\n");
+        Har.append(record, entry);
+        try {
+            out.append(record);
+            empty = false;
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+        
+        // Bodies can be large, don't keep the biggest one around
+        if (record.length() > 1024 * 1024) {
+            record.setLength(0);
+            record.trimToSize();
+        }
+    }
+    
+    /**
+     * Completes the trace and closes the underlying stream. Exchanges that are still in
+     * progress are not recorded.
+     * 
+     * @throws IOException if this or an earlier write failed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        
+        closed = true;
+        try {
+            if (failure == null)
+                out.write(Har.TRAILER);
+        }
+        finally {
+            out.close();
+        }
+        if (failure != null)
+            throw failure;
+    }
+    
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.trace;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.ConnectException;
+import java.net.MalformedURLException;
+import java.net.NoRouteToHostException;
+import java.net.PortUnreachableException;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+
+import de.bastisoft.ogre.HttpStatusException;
+import de.bastisoft.ogre.Transport;
+
+/**
+ * A transport that serves the responses from a trace recorded by {@link TraceRecorder}
+ * instead of contacting a server. This makes it possible to reproduce a search offline,
+ * and to benchmark parsing and merging against real pages without network noise.
+ * 
+ * <p>Requests are matched to recorded exchanges by URL. If a URL was requested several
+ * times while recording, the recorded responses are served in their original order, and
+ * the last one is served again once they are used up, so a search can be replayed any
+ * number of times. {@link #rewind} starts over with the first responses. A request for a
+ * URL that is not in the trace fails with an exception, the way an unreachable server
+ * would. Requests that failed while recording fail again with an exception of the same
+ * class and message, which for error statuses is an {@link HttpStatusException} with the
+ * recorded response.
+ * 
+ * <p>By default, responses are delayed by their recorded wait and receive times, so that
+ * the scraper sees the original timing. The delays can be scaled with
+ * {@link #setTimeScale}, for example to replay ten times faster or without any delay.
+ */
+public class TraceReplay implements Transport {
+
+    private final Map<String, List<Har.Entry>> exchanges;
+    private final Map<String, Integer> positions;
+    private volatile double timeScale;
+    
+    /**
+     * Loads a trace file.
+     * 
+     * @param file the trace file
+     * @throws IOException if the file cannot be read or is not a valid trace
+     */
+    public TraceReplay(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+    
+    /**
+     * Loads a trace from a stream, which is closed afterwards.
+     * 
+     * @param in the stream
+     * @throws IOException if the stream cannot be read or is not a valid trace
+     */
+    public TraceReplay(InputStream in) throws IOException {
+        exchanges = new LinkedHashMap<>();
+        positions = new HashMap<>();
+        timeScale = 1;
+        
+        try (Reader r = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            for (Har.Entry entry : Har.read(r)) {
+                List<Har.Entry> list = exchanges.get(entry.url);
+                if (list == null)
+                    exchanges.put(entry.url, list = new ArrayList<>());
+                list.add(entry);
+            }
+        }
+    }
+    
+    /**
+     * Sets the factor by which recorded delays are multiplied.
+     * 
+     * @param timeScale 1 for the original timing, 0.1 for ten times as fast, 0 for no
+     *          delay at all
+     */
+    public void setTimeScale(double timeScale) {
+        if (timeScale < 0)
+            throw new IllegalArgumentException("Negative time scale: " + timeScale);
+        this.timeScale = timeScale;
+    }
+    
+    /**
+     * Returns the number of recorded exchanges.
+     * 
+     * @return the number of exchanges
+     */
+    public int size() {
+        int size = 0;
+        for (List<Har.Entry> list : exchanges.values())
+            size += list.size();
+        return size;
+    }
+    
+    /**
+     * Returns the URLs of all recorded requests.
+     * 
+     * @return the URLs
+     */
+    public Set<String> urls() {
+        return Collections.unmodifiableSet(exchanges.keySet());
+    }
+    
+    /**
+     * Serves the first recorded response for every URL again.
+     */
+    public synchronized void rewind() {
+        positions.clear();
+    }
+    
+    private synchronized Har.Entry next(String url) {
+        List<Har.Entry> list = exchanges.get(url);
+        if (list == null)
+            return null;
+        
+        Integer position = positions.get(url);
+        int p = position != null ? position : 0;
+        positions.put(url, p + 1);
+        return list.get(Math.min(p, list.size() - 1));
+    }
+    
+    @Override
+    public Response get(URL url, Map<String, String> headers, Proxy proxy) throws IOException {
+        final Har.Entry entry = next(url.toExternalForm());
+        if (entry == null)
+            throw new IOException("No recorded response for " + url);
+        
+        final URL responseURL;
+        try {
+            responseURL = entry.redirectURL != null ? new URL(entry.redirectURL) : url;
+        }
+        catch (MalformedURLException e) {
+            throw new IOException("Invalid redirect URL in trace: " + entry.redirectURL, e);
+        }
+        
+        final double scale = timeScale;
+        delay(entry.waitMillis * scale);
+        
+        if (entry.errorClass != null)
+            throw failure(entry, responseURL);
+        
+        // The receive time is spent when the body is first read
+        final InputStream body = new ByteArrayInputStream(entry.body) {
+            private boolean started;
+            
+            @Override
+            public synchronized int read() {
+                start();
+                return super.read();
+            }
+            
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                start();
+                return super.read(b, off, len);
+            }
+            
+            private void start() {
+                if (!started) {
+                    started = true;
+                    delay(entry.receiveMillis * scale);
+                }
+            }
+        };
+        
+        return new Response() {
+            @Override
+            public URL getURL() {
+                return responseURL;
+            }
+            
+            @Override
+            public int getStatus() {
+                return entry.status;
+            }
+            
+            @Override
+            public Map<String, List<String>> getHeaders() {
+                return entry.responseHeaders;
+            }
+            
+            @Override
+            public InputStream getBody() {
+                return body;
+            }
+            
+            @Override
+            public void close() {
+                // Nothing to release
+            }
+        };
+    }
+    
+    /**
+     * Recreates the exception a request failed with while recording. The class name comes
+     * from the trace, so only the exceptions that requests commonly fail with are recreated;
+     * others are replaced by plain {@link IOException}s with the same message.
+     */
+    private static IOException failure(Har.Entry entry, URL url) {
+        String message = entry.errorMessage;
+        switch (entry.errorClass) {
+            case "de.bastisoft.ogre.HttpStatusException":
+                return new HttpStatusException(message, url, entry.status, entry.responseHeaders, entry.body, null);
+            case "java.net.ConnectException": return new ConnectException(message);
+            case "java.net.NoRouteToHostException": return new NoRouteToHostException(message);
+            case "java.net.PortUnreachableException": return new PortUnreachableException(message);
+            case "java.net.SocketTimeoutException": return new SocketTimeoutException(message);
+            case "java.net.SocketException": return new SocketException(message);
+            case "java.net.UnknownHostException": return new UnknownHostException(message);
+            case "java.net.ProtocolException": return new ProtocolException(message);
+            case "java.net.MalformedURLException": return new MalformedURLException(message);
+            case "java.io.EOFException": return new EOFException(message);
+            case "java.io.InterruptedIOException": return new InterruptedIOException(message);
+            case "javax.net.ssl.SSLHandshakeException": return new SSLHandshakeException(message);
+            case "javax.net.ssl.SSLException": return new SSLException(message);
+            default: return new IOException(message);
+        }
+    }
+    
+    private static void delay(double millis) {
+        long nanos = (long) (millis * 1e6);
+        if (nanos <= 0)
+            return;
+        
+        try {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        }
+        catch (InterruptedException e) {
+            // Serve the response early and leave the interruption to the caller
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+}
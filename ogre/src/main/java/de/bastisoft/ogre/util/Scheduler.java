@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single daemon thread for the small periodic and delayed tasks of OGRE, such as
+ * flushing buffered output. Tasks must be quick, they hold up all others while they run.
+ * 
+ * <p>Not part of the API: the class is public only because batching receivers and export
+ * sinks live in different packages and share the thread.
+ */
+public final class Scheduler {
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ogre-timer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    
+    private Scheduler() {}
+    
+    /**
+     * Runs a task once after a delay.
+     * 
+     * @param task the task
+     * @param delay milliseconds until the task runs
+     * @return the future by which the task can be cancelled
+     */
+    public static ScheduledFuture<?> schedule(Runnable task, long delay) {
+        return EXECUTOR.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Runs a task repeatedly at a fixed interval until it is cancelled.
+     * 
+     * @param task the task
+     * @param interval milliseconds before the first and between subsequent runs
+     * @return the future by which the task can be cancelled
+     */
+    public static ScheduledFuture<?> scheduleRepeating(Runnable task, long interval) {
+        return EXECUTOR.scheduleWithFixedDelay(task, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    
+}
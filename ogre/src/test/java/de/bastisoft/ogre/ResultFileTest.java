@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012 Sebastian Koppehel
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bastisoft.ogre;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.bastisoft.ogre.LineMatch.Highlight;
+
+/**
+ * Saves search results with {@link ResultWriter} and loads them with {@link ResultReader}.
+ */
+public class ResultFileTest {
+
+    private static final String BASE = "http://opengrok.example.org/source/";
+    
+    private final List<File> files = new ArrayList<>();
+    private final List<SearchResult> results = new ArrayList<>();
+    
+    @After
+    public void cleanUp() throws IOException {
+        for (SearchResult result : results)
+            result.close();
+        for (File file : files)
+            file.delete();
+    }
+    
+    @Test
+    public void roundTrip() throws IOException {
+        SearchResult original = new SearchResult(link(BASE + "search?q=foo"), null);
+        original.mergeFileMatch(fileMatch("/src", "a.c", 1, 5, 9));
+        original.mergeFileMatch(fileMatch("/src/util", "b.h", 2));
+        FileMatch abridged = fileMatch("/src/util", "c.h", 3, 4);
+        abridged.setAbridged(link(BASE + "more/src/util/c.h?q=foo"));
+        original.mergeFileMatch(abridged);
+        original.setPageLimitTriggered(true);
+        original.restorePageCounts(3, 2);
+        
+        SearchResult restored = saveAndLoad(original);
+        
+        assertSameFiles(original, restored);
+        assertTrue(restored.pageLimitTriggered());
+        assertFalse(restored.aborted());
+        assertFalse(restored.stopped());
+        assertEquals(3, restored.fetchedPageCount());
+        assertEquals(2, restored.unfetchedPageCount());
+        assertEquals(1, restored.abridgedFileCount());
+        assertEquals(2, restored.dirCount());
+        assertEquals(original.lineCount(), restored.lineCount());
+        assertEquals(BASE + "search?q=foo", restored.startLink().url.toExternalForm());
+    }
+    
+    @Test
+    public void roundTripSpilled() throws IOException {
+        SearchResult original = new SearchResult(link(BASE + "search?q=bar"), new SpillFile(null));
+        results.add(original);
+        for (int i = 0; i < 100; i++)
+            original.mergeFileMatch(fileMatch("/dir" + i % 7, "file" + i + ".java", i + 1, i + 20));
+        original.restorePageCounts(4, 0);
+        
+        SearchResult restored = saveAndLoad(original);
+        
+        assertSameFiles(original, restored);
+        assertFalse(restored.pageLimitTriggered());
+        assertEquals(4, restored.fetchedPageCount());
+        assertEquals(0, restored.unfetchedPageCount());
+    }
+    
+    @Test
+    public void emptyResult() throws IOException {
+        SearchResult restored = saveAndLoad(new SearchResult(null, null));
+        
+        assertEquals(0, restored.fileCount());
+        assertEquals(0, restored.fetchedPageCount());
+        assertNull(restored.startLink());
+    }
+    
+    private SearchResult saveAndLoad(SearchResult result) throws IOException {
+        File file = File.createTempFile("ogre-test", ".ogre");
+        files.add(file);
+        ResultWriter.write(result, file);
+        
+        SearchResult restored = ResultReader.read(file);
+        results.add(restored);
+        return restored;
+    }
+    
+    private static void assertSameFiles(SearchResult expected, SearchResult actual) {
+        List<FileMatch> expectedFiles = new ArrayList<>(expected.files());
+        List<FileMatch> actualFiles = new ArrayList<>(actual.files());
+        assertEquals(expectedFiles.size(), actualFiles.size());
+        
+        for (int i = 0; i < expectedFiles.size(); i++) {
+            FileMatch e = expectedFiles.get(i);
+            FileMatch a = actualFiles.get(i);
+            assertEquals(e.getFullName(), a.getFullName());
+            assertEquals(e.getXrefLink().url.toExternalForm(), a.getXrefLink().url.toExternalForm());
+            assertEquals(e.abridged(), a.abridged());
+            assertEquals(e.lineCount(), a.lineCount());
+            
+            for (int j = 0; j < e.lineCount(); j++) {
+                LineMatch el = e.lineAt(j);
+                LineMatch al = a.lineAt(j);
+                assertEquals(el.getLineNumber(), al.getLineNumber());
+                assertEquals(el.getLine(), al.getLine());
+                assertEquals(el.getLink().url.toExternalForm(), al.getLink().url.toExternalForm());
+                assertEquals(el.getHighlights().size(), al.getHighlights().size());
+                for (int k = 0; k < el.getHighlights().size(); k++) {
+                    assertEquals(el.getHighlights().get(k).getStart(), al.getHighlights().get(k).getStart());
+                    assertEquals(el.getHighlights().get(k).getEnd(), al.getHighlights().get(k).getEnd());
+                }
+            }
+        }
+    }
+    
+    private static FileMatch fileMatch(String directory, String filename, int... lineNumbers) {
+        WebLink xref = link(BASE + "xref" + directory + "/" + filename);
+        FileMatch match = new FileMatch(directory, filename, xref);
+        for (int n : lineNumbers) {
+            String text = "int foo" + n + " = foo(" + n + ");";
+            WebLink lineLink = new WebLink(url(xref.url.toExternalForm() + "#" + n), xref.referer);
+            match.addLine(new LineMatch(n, text, lineLink, new Highlight[] { new Highlight(4, 7), new Highlight(text.indexOf("foo("), text.indexOf("foo(") + 3) }));
+        }
+        return match;
+    }
+    
+    private static WebLink link(String url) {
+        return new WebLink(url(url), null);
+    }
+    
+    private static URL url(String url) {
+        try {
+            return new URL(url);
+        }
+        catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+    
+}